@@ -0,0 +1,203 @@
+package org.daisy.dotify.cli;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Provides a bounded worker pool for running a batch of independent jobs.
+ * Submitting a job blocks while all queue slots are taken, so the number of
+ * pending jobs never exceeds a small multiple of the number of workers.
+ */
+class BatchRunner {
+	private static final Logger logger = Logger.getLogger(BatchRunner.class.getCanonicalName());
+	private static final int QUEUE_SLOTS_PER_THREAD = 2;
+	private final int threads;
+	private final ExecutorService executor;
+	private final Semaphore slots;
+	private final AtomicInteger succeeded;
+	private final AtomicInteger skipped;
+	private final List<String> failures;
+	private volatile boolean cancelled;
+
+	/**
+	 * Provides a batch job.
+	 */
+	interface Job {
+		/**
+		 * Runs the job.
+		 * @return true if the job was processed, false if it was skipped
+		 * @throws Exception if the job fails
+		 */
+		boolean run() throws Exception;
+	}
+
+	/**
+	 * Creates a new batch runner with the specified number of workers.
+	 * @param threads the number of workers
+	 * @throws IllegalArgumentException if the number of threads is less than one
+	 */
+	BatchRunner(int threads) {
+		if (threads<1) {
+			throw new IllegalArgumentException("The number of threads must be at least 1: " + threads);
+		}
+		this.threads = threads;
+		this.executor = Executors.newFixedThreadPool(threads);
+		this.slots = new Semaphore(threads * QUEUE_SLOTS_PER_THREAD);
+		this.succeeded = new AtomicInteger();
+		this.skipped = new AtomicInteger();
+		this.failures = Collections.synchronizedList(new ArrayList<String>());
+		this.cancelled = false;
+	}
+
+	/**
+	 * Gets the default number of workers, which is the number of available processors.
+	 * @return the default number of workers
+	 */
+	static int defaultThreads() {
+		return Runtime.getRuntime().availableProcessors();
+	}
+
+	/**
+	 * Parses a number of workers from a command line value.
+	 * @param value the value, or null
+	 * @return the number of workers, or the default number of workers if value is null or empty
+	 * @throws IllegalArgumentException if the value is not a positive integer
+	 */
+	static int parseThreads(String value) {
+		if (value==null || "".equals(value)) {
+			return defaultThreads();
+		}
+		try {
+			int ret = Integer.parseInt(value);
+			if (ret>0) {
+				return ret;
+			}
+		} catch (NumberFormatException e) {
+			// handled below
+		}
+		throw new IllegalArgumentException("The number of threads must be a positive integer: '" + value + "'");
+	}
+
+	/**
+	 * Gets the number of workers.
+	 * @return the number of workers
+	 */
+	int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * Submits a job, blocking until a queue slot is available.
+	 * @param name the name of the job, used when reporting failures
+	 * @param job the job
+	 * @throws InterruptedException if interrupted while waiting for a queue slot
+	 * @throws RejectedExecutionException if the batch has been cancelled
+	 */
+	void submit(String name, Job job) throws InterruptedException {
+		slots.acquire();
+		if (cancelled) {
+			slots.release();
+			throw new RejectedExecutionException("The batch has been cancelled.");
+		}
+		try {
+			executor.execute(()->{
+				try {
+					if (job.run()) {
+						succeeded.incrementAndGet();
+					} else {
+						skipped.incrementAndGet();
+					}
+				} catch (Exception e) {
+					logger.log(Level.WARNING, "Failed to process " + name, e);
+					failures.add(name);
+				} finally {
+					slots.release();
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			slots.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Cancels the batch. Jobs that have not started are discarded and running
+	 * jobs are interrupted. No jobs can be submitted after this call.
+	 */
+	void cancel() {
+		cancelled = true;
+		executor.shutdownNow();
+		// discarded jobs never release their slots, so release enough to wake up any waiting submitter
+		slots.release(threads * QUEUE_SLOTS_PER_THREAD);
+	}
+
+	/**
+	 * Returns true if the batch has been cancelled.
+	 * @return true if cancelled, false otherwise
+	 */
+	boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * Waits for all submitted jobs to finish. No jobs can be submitted after this call.
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	void awaitCompletion() throws InterruptedException {
+		executor.shutdown();
+		executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Gets the number of jobs that finished successfully.
+	 * @return the number of successful jobs
+	 */
+	int getSucceeded() {
+		return succeeded.get();
+	}
+
+	/**
+	 * Gets the number of jobs that were skipped.
+	 * @return the number of skipped jobs
+	 */
+	int getSkipped() {
+		return skipped.get();
+	}
+
+	/**
+	 * Gets the names of the jobs that failed.
+	 * @return the names of the failed jobs
+	 */
+	List<String> getFailures() {
+		synchronized (failures) {
+			return new ArrayList<>(failures);
+		}
+	}
+
+	/**
+	 * Prints a summary of the batch.
+	 * @param ps the print stream to print to
+	 */
+	void printSummary(PrintStream ps) {
+		List<String> failed = getFailures();
+		ps.println("Processed " + (getSucceeded() + getSkipped() + failed.size()) + " file(s): "
+				+ getSucceeded() + " succeeded, " + getSkipped() + " skipped, " + failed.size() + " failed.");
+		if (!failed.isEmpty()) {
+			Collections.sort(failed);
+			ps.println("Failed:");
+			for (String s : failed) {
+				ps.println("\t" + s);
+			}
+		}
+	}
+}
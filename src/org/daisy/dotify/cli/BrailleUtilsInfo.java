@@ -34,7 +34,7 @@ class BrailleUtilsInfo {
 		return ret;
 	}
 
-	ShortFormResolver getShortFormResolver() {
+	synchronized ShortFormResolver getShortFormResolver() {
 		if (tableSF==null) {
 			Collection<String> idents = new ArrayList<String>();
 			for (FactoryProperties p : getTableCatalog().list()) { idents.add(p.getIdentifier()); }
@@ -43,7 +43,7 @@ class BrailleUtilsInfo {
 		return tableSF;
 	}
 
-	private TableCatalog getTableCatalog() {
+	private synchronized TableCatalog getTableCatalog() {
 		if (tableCatalog==null) {
 			tableCatalog = TableCatalog.newInstance();
 		}
@@ -3,13 +3,15 @@ package org.daisy.dotify.cli;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.PrintStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.InvalidPropertiesFormatException;
@@ -18,16 +20,12 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
-import javax.xml.parsers.ParserConfigurationException;
-
 import org.daisy.braille.utils.pef.PEFConverterFacade;
-import org.daisy.braille.utils.pef.UnsupportedWidthException;
-import org.daisy.dotify.api.embosser.EmbosserCatalog;
-import org.daisy.dotify.api.embosser.EmbosserFactoryException;
 import org.daisy.dotify.api.translator.BrailleTranslatorFactoryMaker;
 import org.daisy.dotify.api.translator.TranslatorType;
 import org.daisy.dotify.common.text.FilterLocale;
@@ -36,7 +34,6 @@ import org.daisy.dotify.common.xml.XMLToolsException;
 import org.daisy.streamline.api.config.ConfigurationDetails;
 import org.daisy.streamline.api.config.ConfigurationsCatalog;
 import org.daisy.streamline.api.config.ConfigurationsProviderException;
-import org.daisy.streamline.api.identity.IdentityProvider;
 import org.daisy.streamline.api.media.AnnotatedFile;
 import org.daisy.streamline.api.media.DefaultAnnotatedFile;
 import org.daisy.streamline.api.media.FormatIdentifier;
@@ -48,8 +45,6 @@ import org.daisy.streamline.api.tasks.TaskSystem;
 import org.daisy.streamline.api.tasks.TaskSystemException;
 import org.daisy.streamline.api.tasks.TaskSystemFactoryException;
 import org.daisy.streamline.api.tasks.TaskSystemFactoryMaker;
-import org.daisy.streamline.api.validity.Validator;
-import org.daisy.streamline.api.validity.ValidatorFactoryMaker;
 import org.daisy.streamline.cli.Argument;
 import org.daisy.streamline.cli.CommandDetails;
 import org.daisy.streamline.cli.CommandParser;
@@ -62,7 +57,6 @@ import org.daisy.streamline.cli.SwitchMap;
 import org.daisy.streamline.engine.DefaultTempFileWriter;
 import org.daisy.streamline.engine.RunnerResult;
 import org.daisy.streamline.engine.TaskRunner;
-import org.xml.sax.SAXException;
 
 /**
  * Provides a command line entry point to Dotify.
@@ -79,25 +73,36 @@ public class Convert implements CommandDetails {
 	private static final String CONFIG_KEY = "configs";
 	private static final String WATCH_KEY = "watch";
 	private static final String META_KEY = "meta";
+	private static final String THREADS_KEY = "threads";
+	private static final String INCREMENTAL_KEY = "incremental";
+	private static final String RECURSIVE_KEY = "recursive";
+	private static final String INCLUDE_KEY = "include";
+	private static final String EXCLUDE_KEY = "exclude";
+	private static final List<String> BATCH_KEYS = Arrays.asList(THREADS_KEY, INCREMENTAL_KEY, RECURSIVE_KEY, INCLUDE_KEY, EXCLUDE_KEY);
+	static final String VALIDATE_KEY = "validate";
 	
-	private static final int DEFAULT_POLL_TIME = 5000;
-	private static final int MIN_POLL_TIME = 250;
+	private static final int DEFAULT_DEBOUNCE_TIME = 500;
+	private static final int MIN_DEBOUNCE_TIME = 50;
 
 	private final List<Argument> reqArgs;
 	private final List<OptionalArgument> optionalArgs;
 	private final SwitchMap switches;
 	private final BrailleUtilsInfo brailleInfo;
+	private final OutputValidator outputValidator;
 	private final CommandParser parser;
 
 	public Convert() {
 		this.brailleInfo = new BrailleUtilsInfo();
+		this.outputValidator = new OutputValidator(brailleInfo);
 		//Use lazy loading of argument details
 		this.reqArgs = new ArrayList<Argument>();
 		this.optionalArgs = new ArrayList<OptionalArgument>();
 		this.switches = new SwitchMap.Builder()
-				.addSwitch(new SwitchArgument('w', WATCH_KEY, WATCH_KEY, "" + DEFAULT_POLL_TIME, "Keeps the conversion in sync by watching the input file for changes and rerunning the conversion automatically when the input is modified."))
+				.addSwitch(new SwitchArgument('w', WATCH_KEY, WATCH_KEY, "" + DEFAULT_DEBOUNCE_TIME, "Keeps the conversion in sync by watching the input file (or folder) for changes and rerunning the conversion automatically when the input is modified."))
 				.addSwitch(new SwitchArgument('o', SystemKeys.LIST_OPTIONS.getKey(), SystemKeys.LIST_OPTIONS.getKey(), "true", "Lists additional options as the conversion runs."))
 				.addSwitch(new SwitchArgument('c', CONFIG_KEY, META_KEY, CONFIG_KEY, "Lists known configurations."))
+				.addSwitch(new SwitchArgument('i', INCREMENTAL_KEY, INCREMENTAL_KEY, "true", "In batch mode, only converts files that have changed since the previous run with the same options."))
+				.addSwitch(new SwitchArgument('r', RECURSIVE_KEY, RECURSIVE_KEY, "true", "In batch mode, includes files in subfolders. The folder structure is mirrored in the output folder."))
 				.build();
 		this.parser = CommandParser.create(this);
 	}
@@ -159,126 +164,184 @@ public class Convert implements CommandDetails {
 
 		props.putAll(result.getOptional());
 		
-		if (input.isDirectory() && output.isDirectory()) {
-			if (result.getOptional().get(WATCH_KEY)!=null) {
-				logger.warning("'" + WATCH_KEY + "' is not implemented for batch mode.");
-			}
-			if ("true".equals(props.get(SystemKeys.WRITE_TEMP_FILES.getKey()))) {
-				ExitCode.ILLEGAL_ARGUMENT_VALUE.exitSystem("Cannot write debug files in batch mode.");
-			}
-			String format = props.get(SystemKeys.OUTPUT_FORMAT.getKey());
-			if (format==null) {
-				ExitCode.MISSING_ARGUMENT.exitSystem(SystemKeys.OUTPUT_FORMAT.getKey() + " must be specified in batch mode.");
-			} else if (format.equals(SystemKeys.PEF_FORMAT.getKey())) {
-				format = "pef";
-			} else if (format.equals(SystemKeys.FORMATTED_TEXT_FORMAT.getKey())) {
-				format = "txt";
-			} else if (format.equals(SystemKeys.OBFL_FORMAT.getKey())) {
-				format = "obfl";
-			} else {
-				ExitCode.ILLEGAL_ARGUMENT_VALUE.exitSystem("Unknown output format.");
+		if (props.containsKey(PEFConverterFacade.KEY_TABLE)) {
+			// check the table before starting, rather than once for every file
+			try {
+				m.brailleInfo.getShortFormResolver().expandShortForm(new HashMap<>(props), PEFConverterFacade.KEY_TABLE);
+			} catch (IllegalArgumentException e) {
+				ExitCode.ILLEGAL_ARGUMENT_VALUE.exitSystem(e.getMessage());
 			}
-			//Experimental parallelization code in comment.
-			//ExecutorService es = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
-			final String ext = format;
-			for (final File f : input.listFiles()) {
-				//es.execute(new Runnable() {
-					//public void run() {
-						try {
-					m.runDotify(f, new File(output, f.getName() + "." + ext), context, props);
-						} catch (InternalTaskException e) {
-							logger.log(Level.WARNING, "Failed to process " + f, e);
-						} catch (IOException e) {
-							logger.log(Level.WARNING, "Failed to read " + f, e);
-						}
-					//}});
+		}
+		
+		try {
+			OutputValidator.Mode.parse(props.get(VALIDATE_KEY));
+		} catch (IllegalArgumentException e) {
+			ExitCode.ILLEGAL_ARGUMENT_VALUE.exitSystem(e.getMessage());
+		}
+
+		long debounce = -1;
+		String debounceStr = props.remove(WATCH_KEY);
+		if (debounceStr!=null) {
+			debounce = DEFAULT_DEBOUNCE_TIME;
+			try {
+				debounce = Math.max(Integer.parseInt(debounceStr), MIN_DEBOUNCE_TIME);
+			} catch (NumberFormatException e) {
+				logger.warning("Could not parse " + WATCH_KEY + " value '" + debounceStr + "' as an integer.");
 			}
-			//es.shutdown();
-			//try {
-			//	es.awaitTermination(600, TimeUnit.SECONDS);
-			//} catch (InterruptedException e) {
-			//	e.printStackTrace();
-			//}
-		} else if (input.isDirectory()) { 
-			ExitCode.ILLEGAL_ARGUMENT_VALUE.exitSystem("If input is a directory, output must be an existing directory too.");
-		} else {
-			String pollWaitStr = result.getOptional().get(WATCH_KEY);
-			if (pollWaitStr!=null) {
-				int pollWait = DEFAULT_POLL_TIME;
+			logger.fine("Debounce time is " + debounce);
+		}
+		
+		// the batch options are not task system parameters, remove them in all modes
+		String threadsStr = props.remove(THREADS_KEY);
+		boolean recursive = "true".equals(props.remove(RECURSIVE_KEY));
+		String include = props.remove(INCLUDE_KEY);
+		String exclude = props.remove(EXCLUDE_KEY);
+		boolean incremental = "true".equals(props.remove(INCREMENTAL_KEY));
+
+		try {
+			if (input.isDirectory() && output.isDirectory()) {
+				if ("true".equals(props.get(SystemKeys.WRITE_TEMP_FILES.getKey()))) {
+					ExitCode.ILLEGAL_ARGUMENT_VALUE.exitSystem("Cannot write debug files in batch mode.");
+				}
+				String format = props.get(SystemKeys.OUTPUT_FORMAT.getKey());
+				if (format==null) {
+					ExitCode.MISSING_ARGUMENT.exitSystem(SystemKeys.OUTPUT_FORMAT.getKey() + " must be specified in batch mode.");
+				} else if (format.equals(SystemKeys.PEF_FORMAT.getKey())) {
+					format = "pef";
+				} else if (format.equals(SystemKeys.FORMATTED_TEXT_FORMAT.getKey())) {
+					format = "txt";
+				} else if (format.equals(SystemKeys.OBFL_FORMAT.getKey())) {
+					format = "obfl";
+				} else {
+					ExitCode.ILLEGAL_ARGUMENT_VALUE.exitSystem("Unknown output format.");
+				}
+				int threads = 1;
+				try {
+					threads = BatchRunner.parseThreads(threadsStr);
+				} catch (IllegalArgumentException e) {
+					ExitCode.ILLEGAL_ARGUMENT_VALUE.exitSystem(e.getMessage());
+				}
+				ConvertManifest manifest = null;
+				if (incremental) {
+					manifest = ConvertManifest.load(output, props);
+				}
+				ConvertBatch batch = null;
 				try {
-					pollWait = Math.max(Integer.parseInt(pollWaitStr), MIN_POLL_TIME);
-				} catch (NumberFormatException e) {
-					logger.warning("Could not parse " + WATCH_KEY + " value '" + pollWaitStr + "' as an integer.");
+					batch = new ConvertBatch.Builder(m, input, output, format, context, props)
+							.threads(threads)
+							.manifest(manifest)
+							.recursive(recursive)
+							.include(include)
+							.exclude(exclude)
+							.build();
+				} catch (IllegalArgumentException e) {
+					ExitCode.ILLEGAL_ARGUMENT_VALUE.exitSystem(e.getMessage());
 				}
-				logger.fine("Poll time is " + pollWait);
-				long modified = 0;
-				while (input.exists()) {
-					if (modified<input.lastModified()) {
-						modified = input.lastModified();
-						try {
-							//delete the output so that it is not there if something goes wrong
-							output.delete();
-							m.runDotify(input, output, context, props);
-						} catch (Exception e) { 
-							logger.log(Level.SEVERE, "A severe error occurred.", e);
+				batch.run();
+				if (debounce>-1) {
+					batch.watch(debounce);
+				}
+			} else if (input.isDirectory()) { 
+				ExitCode.ILLEGAL_ARGUMENT_VALUE.exitSystem("If input is a directory, output must be an existing directory too.");
+			} else if (debounce>-1) {
+				Path inputPath = input.getAbsoluteFile().toPath();
+				try (FileWatcher watcher = new FileWatcher(debounce)) {
+					watcher.register(inputPath.getParent(), false);
+					boolean modified = true;
+					while (input.exists()) {
+						if (modified) {
+							try {
+								//delete the output so that it is not there if something goes wrong
+								output.delete();
+								m.runDotify(input, output, context, props);
+								m.awaitValidation(System.out);
+							} catch (InterruptedException e) {
+								throw e;
+							} catch (Exception e) { 
+								logger.log(Level.SEVERE, "A severe error occurred.", e);
+							}
+							logger.fine(SharedServices.getTaskSystemCache().toString());
+							logger.fine(SharedServices.getIdentificationCache().toString());
+							logger.info("Waiting for changes in " + input);
 						}
-						logger.info("Waiting for changes in " + input);
-					}
-					try {
-						Thread.sleep(pollWait);
-					} catch (InterruptedException e) {
+						modified = watcher.poll().contains(inputPath);
 					}
 				}
 			} else {
 				m.runDotify(input, output, context, props);
+				m.awaitValidation(System.out);
 			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			logger.warning("Conversion was interrupted.");
 		}
 	}
 	
-	private void runDotify(File input, File output, String context, HashMap<String, String> props) throws InternalTaskException, IOException {
-		if (!input.exists()) {
-			ExitCode.MISSING_RESOURCE.exitSystem("Cannot find input file: " + input);
+	/**
+	 * Converts a single file, without exiting the JVM if the job fails.
+	 * @param input the input file
+	 * @param output the output file
+	 * @param options the options, as supplied on the command line. Batch options and switches are ignored.
+	 * @throws IOException if there is an i/o error
+	 * @throws InternalTaskException if there is a problem with running the task system
+	 */
+	void runJob(File input, File output, Map<String, String> options) throws InternalTaskException, IOException {
+		String context = options.get("locale");
+		if (context==null || "".equals(context)) {
+			context = DEFAULT_LOCALE;
 		}
-		run(input, output, FilterLocale.parse(context), props);
-		if (output.exists()) {
-			AnnotatedFile ao = IdentityProvider.newInstance().identify(output);
-			String mediaType = ao.getMediaType();
-			ValidatorFactoryMaker validatorFactory = ValidatorFactoryMaker.newInstance();
-			Validator validator;
-			if (mediaType!=null && (validator = validatorFactory.newValidator(mediaType))!=null) {
-				logger.info(String.format("Validating output using %s", validator.getClass().getName()));
-				if (!validator.validate(output.toURI().toURL()).isValid()) {
-					logger.warning("Validation failed: " + output);
-				} else {
-					logger.info("Output is valid.");
-					if (mediaType.equals("application/x-pef+xml") && props.containsKey(PEFConverterFacade.KEY_TABLE)) {
-						// create brl
-						HashMap<String, String> p = new HashMap<String, String>();
-						p.put(PEFConverterFacade.KEY_TABLE, props.get(PEFConverterFacade.KEY_TABLE));
-						try {
-							brailleInfo.getShortFormResolver().expandShortForm(p, PEFConverterFacade.KEY_TABLE);
-						} catch (IllegalArgumentException e) {
-							ExitCode.ILLEGAL_ARGUMENT_VALUE.exitSystem(e.getMessage());
-						}
-						File f = new File(output.getParentFile(), output.getName() + ".brl");
-						logger.info("Writing brl to " + f.getAbsolutePath());
-						try (FileOutputStream os = new FileOutputStream(f)) {
-							new PEFConverterFacade(EmbosserCatalog.newInstance()).parsePefFile(output, os, null, p);
-						} catch (ParserConfigurationException e) {
-							logger.log(Level.FINE, "Parse error when converting to brl", e);
-						} catch (SAXException e) {
-							logger.log(Level.FINE, "SAX error when converting to brl", e);
-						} catch (UnsupportedWidthException e) {
-							logger.log(Level.FINE, "Width error when converting to brl", e);
-						} catch (NumberFormatException e) {
-							logger.log(Level.FINE, "Number format error when converting to brl", e);
-						} catch (EmbosserFactoryException e) {
-							logger.log(Level.FINE, "Embosser error when converting to brl", e);
-						}
-					}
-				}
-			}
+		HashMap<String, String> props = new HashMap<>(options);
+		for (String key : BATCH_KEYS) {
+			props.remove(key);
+		}
+		// switches don't apply to a single job
+		props.remove(WATCH_KEY);
+		props.remove(META_KEY);
+		props.remove(SystemKeys.LIST_OPTIONS.getKey());
+		if (OutputValidator.Mode.parse(props.get(VALIDATE_KEY))==OutputValidator.Mode.ASYNC) {
+			// the result of the job includes the validation
+			props.put(VALIDATE_KEY, OutputValidator.Mode.SYNC.toString());
 		}
+		if (props.containsKey(PEFConverterFacade.KEY_TABLE)) {
+			// check the table before running
+			brailleInfo.getShortFormResolver().expandShortForm(new HashMap<>(props), PEFConverterFacade.KEY_TABLE);
+		}
+		runDotify(input, output, context, props);
+	}
+
+	void runDotify(File input, File output, String context, HashMap<String, String> props) throws InternalTaskException, IOException {
+		runDotify(input, output, context, props, v->{});
+	}
+
+	/**
+	 * Converts a file and processes the result.
+	 * @param input the input file
+	 * @param output the output file
+	 * @param context the locale
+	 * @param props the options
+	 * @param onSuccess the consumer of the files that were produced, called if the result is valid
+	 * 			(or isn't validated). With background validation, it is called on another thread.
+	 * @throws InternalTaskException if there is a problem with running the task system
+	 * @throws IOException if there is an i/o error
+	 */
+	void runDotify(File input, File output, String context, HashMap<String, String> props, Consumer<List<File>> onSuccess) throws InternalTaskException, IOException {
+		if (!input.exists()) {
+			throw new FileNotFoundException("Cannot find input file: " + input);
+		}
+		HashMap<String, String> p = new HashMap<>(props);
+		OutputValidator.Mode mode = OutputValidator.Mode.parse(p.remove(VALIDATE_KEY));
+		run(input, output, FilterLocale.parse(context), p);
+		outputValidator.process(output, p, mode, onSuccess);
+	}
+
+	/**
+	 * Waits for background validation of conversion results to finish and
+	 * reports the results.
+	 * @param ps the print stream to report to
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	void awaitValidation(PrintStream ps) throws InterruptedException {
+		outputValidator.awaitCompletion(ps);
 	}
 
 	@Override
@@ -294,7 +357,7 @@ public class Convert implements CommandDetails {
 	@Override
 	public List<Argument> getRequiredArguments() {
 		if (reqArgs.isEmpty()) {
-			TaskSystemFactoryMaker fm = TaskSystemFactoryMaker.newInstance();
+			TaskSystemFactoryMaker fm = SharedServices.getTaskSystemFactoryMaker();
 			//TODO: map identifiers to file formats
 			Set<String> inputFormats = fm.listInputs().stream().map(v->v.getIdentifier()).collect(Collectors.toSet());
 			Set<String> outputFormats = fm.listOutputs().stream().map(v->v.getIdentifier()).collect(Collectors.toSet());
@@ -309,7 +372,7 @@ public class Convert implements CommandDetails {
 		if (optionalArgs.isEmpty()) {
 			{
 				ArrayList<Definition> vals = new ArrayList<Definition>();
-				ConfigurationsCatalog c = ConfigurationsCatalog.newInstance();
+				ConfigurationsCatalog c = SharedServices.getConfigurationsCatalog();
 				List<ConfigurationDetails> detailsList = c.getConfigurationDetails().stream()
 						.sorted((o1, o2) -> {
 							return o1.getKey().compareTo(o2.getKey());
@@ -337,6 +400,16 @@ public class Convert implements CommandDetails {
 				optionalArgs.add(new OptionalArgument(SystemKeys.WRITE_TEMP_FILES.getKey(), "Writes temp files", vals, "false"));
 			}
 			optionalArgs.add(new OptionalArgument(SystemKeys.TEMP_FILES_DIRECTORY.getKey(), "Path to temp files directory", DefaultTempFileWriter.TEMP_DIR));
+			optionalArgs.add(new OptionalArgument(THREADS_KEY, "The number of files to convert in parallel in batch mode", "" + BatchRunner.defaultThreads()));
+			{
+				ArrayList<Definition> vals = new ArrayList<>();
+				vals.add(new Definition(OutputValidator.Mode.SYNC.toString(), "validates the result of each conversion before continuing"));
+				vals.add(new Definition(OutputValidator.Mode.ASYNC.toString(), "validates in the background while converting the next file, and reports the results at the end"));
+				vals.add(new Definition(OutputValidator.Mode.OFF.toString(), "does not validate the result"));
+				optionalArgs.add(new OptionalArgument(VALIDATE_KEY, "Specifies how the result is validated", vals, OutputValidator.Mode.SYNC.toString()));
+			}
+			optionalArgs.add(new OptionalArgument(INCLUDE_KEY, "In batch mode, a glob pattern that input files must match, for example *.xml. Patterns containing / are matched against the path relative to the input folder.", ""));
+			optionalArgs.add(new OptionalArgument(EXCLUDE_KEY, "In batch mode, a glob pattern for input files to skip", ""));
 			optionalArgs.add(new OptionalArgument(PEFConverterFacade.KEY_TABLE, "If specified, an ASCII-braille file (.brl) is generated in addition to the PEF-file using the specified braille code table", brailleInfo.getDefinitionList(), ""));
 		}
 		return optionalArgs;
@@ -378,12 +451,12 @@ public class Convert implements CommandDetails {
 			params.remove("cols");
 		}
 		
-		TaskSystemFactoryMaker specs = TaskSystemFactoryMaker.newInstance();
+		TaskSystemFactoryMaker specs = SharedServices.getTaskSystemFactoryMaker();
 
 		HashMap<String, String> map = new HashMap<String, String>();
 		map.putAll(params);
 
-		AnnotatedFile ai = IdentityProvider.newInstance().identify(inputFile);
+		AnnotatedFile ai = SharedServices.getIdentificationCache().identify(inputFile);
 		map.put(SystemKeys.INPUT.getKey(), ai.getFile().getAbsolutePath());
 
 		String inputFormat = getFormatString(ai);
@@ -457,7 +530,8 @@ public class Convert implements CommandDetails {
 		boolean shouldPrintOptions = "true".equalsIgnoreCase(map.getOrDefault(SystemKeys.LIST_OPTIONS.getKey(), "false"));
 		// Run tasks
 		try {
-			TaskSystem ts = TaskSystemFactoryMaker.newInstance().newTaskSystem(inputFormat, outputformat, context.toString());
+			TaskSystemCache cache = SharedServices.getTaskSystemCache();
+			TaskSystem ts = cache.borrow(inputFormat, outputformat, context.toString());
 			try {
 				logger.info("About to run with parameters " + rp);
 				CompiledTaskSystem tl = ts.compile(rp);
@@ -476,6 +550,8 @@ public class Convert implements CommandDetails {
 				}
 			} catch (TaskSystemException e) {
 				throw new RuntimeException("Unable to run '" +ts.getName() + "' with parameters " + rp, e);
+			} finally {
+				cache.release(inputFormat, outputformat, context.toString(), ts);
 			}
 		} catch (TaskSystemFactoryException e) {
 			throw new RuntimeException("Unable to retrieve a TaskSystem", e);
@@ -502,7 +578,7 @@ public class Convert implements CommandDetails {
 		return specs.listOutputs().stream().filter(v->v.equals(outputFormat)).findAny().isPresent();
 	}
 	
-	private static Map<String, Object> loadSetup(Map<String, String> guiParams, String setup) {
+	static Map<String, Object> loadSetup(Map<String, String> guiParams, String setup) {
 		Map<String, Object> ret;
 		if (setup==null) {
 			ret = new HashMap<>();
@@ -518,7 +594,7 @@ public class Convert implements CommandDetails {
 	
 	private static Map<String, Object> loadConfiguration(String setup) {
 		try {
-			ConfigurationsCatalog cm = ConfigurationsCatalog.newInstance();
+			ConfigurationsCatalog cm = SharedServices.getConfigurationsCatalog();
 			return cm.getConfiguration(setup);
 		} catch (ConfigurationsProviderException e) {
 			//try as file
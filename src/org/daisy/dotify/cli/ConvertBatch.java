@@ -0,0 +1,288 @@
+package org.daisy.dotify.cli;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.daisy.streamline.api.tasks.InternalTaskException;
+
+/**
+ * Provides batch conversion of the files in a directory. Input files are enumerated
+ * lazily and handed to the workers as they are found, so that the whole list of files
+ * is never held in memory. In recursive mode, the folder structure of the input
+ * is mirrored in the output folder.
+ */
+class ConvertBatch {
+	private static final Logger logger = Logger.getLogger(ConvertBatch.class.getCanonicalName());
+	private final Convert convert;
+	private final Path input;
+	private final Path output;
+	private final String ext;
+	private final String context;
+	private final Map<String, String> props;
+	private final int threads;
+	private final ConvertManifest manifest;
+	private final boolean recursive;
+	private final PathMatcher include;
+	private final PathMatcher exclude;
+	private final boolean outputInInput;
+
+	/**
+	 * Provides a builder for batch conversions.
+	 */
+	static class Builder {
+		private final Convert convert;
+		private final File input;
+		private final File output;
+		private final String ext;
+		private final String context;
+		private final Map<String, String> props;
+		private int threads = BatchRunner.defaultThreads();
+		private ConvertManifest manifest = null;
+		private boolean recursive = false;
+		private String include = null;
+		private String exclude = null;
+
+		/**
+		 * Creates a new builder.
+		 * @param convert the converter
+		 * @param input the input directory
+		 * @param output the output directory
+		 * @param ext the file extension to add to output files
+		 * @param context the language/region context
+		 * @param props the options
+		 */
+		Builder(Convert convert, File input, File output, String ext, String context, Map<String, String> props) {
+			this.convert = convert;
+			this.input = input;
+			this.output = output;
+			this.ext = ext;
+			this.context = context;
+			this.props = props;
+		}
+
+		/**
+		 * Sets the number of files to convert in parallel.
+		 * @param value the number of threads
+		 * @return this builder
+		 */
+		Builder threads(int value) {
+			this.threads = value;
+			return this;
+		}
+
+		/**
+		 * Sets the manifest used to skip unchanged files.
+		 * @param value the manifest, or null to convert all files
+		 * @return this builder
+		 */
+		Builder manifest(ConvertManifest value) {
+			this.manifest = value;
+			return this;
+		}
+
+		/**
+		 * Sets whether subfolders should be included.
+		 * @param value true to include subfolders, false otherwise
+		 * @return this builder
+		 */
+		Builder recursive(boolean value) {
+			this.recursive = value;
+			return this;
+		}
+
+		/**
+		 * Sets a glob pattern that files must match to be converted.
+		 * @param value the pattern, or null to include all files
+		 * @return this builder
+		 * @throws IllegalArgumentException if the pattern is not valid
+		 */
+		Builder include(String value) {
+			this.include = value;
+			return this;
+		}
+
+		/**
+		 * Sets a glob pattern for files that should not be converted.
+		 * @param value the pattern, or null to exclude no files
+		 * @return this builder
+		 */
+		Builder exclude(String value) {
+			this.exclude = value;
+			return this;
+		}
+
+		/**
+		 * Creates a new batch conversion.
+		 * @return a new batch conversion
+		 * @throws IllegalArgumentException if a pattern is not valid, or if the output
+		 * 			folder is the same as the input folder
+		 */
+		ConvertBatch build() {
+			return new ConvertBatch(this);
+		}
+	}
+
+	private ConvertBatch(Builder builder) {
+		this.convert = builder.convert;
+		this.input = builder.input.getAbsoluteFile().toPath();
+		this.output = builder.output.getAbsoluteFile().toPath();
+		if (input.normalize().equals(output.normalize())) {
+			// the results would be picked up as input by the next run
+			throw new IllegalArgumentException("The output folder must be different from the input folder.");
+		}
+		this.outputInInput = output.normalize().startsWith(input.normalize());
+		this.ext = builder.ext;
+		this.context = builder.context;
+		this.props = new HashMap<>(builder.props);
+		this.threads = builder.threads;
+		this.manifest = builder.manifest;
+		this.recursive = builder.recursive;
+		this.include = toMatcher(builder.include);
+		this.exclude = toMatcher(builder.exclude);
+	}
+
+	/**
+	 * Creates a matcher for a glob pattern. If the pattern contains a slash, it is matched against the
+	 * path relative to the input folder, otherwise it is matched against the file name.
+	 * @param glob the pattern
+	 * @return a matcher, or null if the pattern is null or empty
+	 */
+	private static PathMatcher toMatcher(String glob) {
+		if (glob==null || "".equals(glob)) {
+			return null;
+		}
+		PathMatcher m = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+		if (glob.indexOf('/')>-1) {
+			return m;
+		} else {
+			return p->m.matches(p.getFileName());
+		}
+	}
+
+	private boolean accept(Path p) {
+		if ((outputInInput && p.normalize().startsWith(output.normalize())) || !Files.isRegularFile(p)) {
+			// the output folder is inside the input folder
+			return false;
+		}
+		Path rel = input.relativize(p);
+		return (include==null || include.matches(rel)) && (exclude==null || !exclude.matches(rel));
+	}
+
+	/**
+	 * Converts all files in the input directory.
+	 * @throws IOException if the input directory cannot be read
+	 * @throws InterruptedException if interrupted while running
+	 */
+	void run() throws IOException, InterruptedException {
+		logger.info("Converting files in " + input + " using " + threads + " thread(s).");
+		try (Stream<Path> files = recursive ? Files.walk(input) : Files.list(input)) {
+			run(files.filter(this::accept).iterator());
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * Converts the specified files.
+	 * @param files the files to convert
+	 * @throws InterruptedException if interrupted while running
+	 */
+	void run(Collection<Path> files) throws InterruptedException {
+		run(files.stream().filter(this::accept).iterator());
+	}
+
+	private void run(Iterator<Path> files) throws InterruptedException {
+		BatchRunner batch = new BatchRunner(threads);
+		try {
+			while (files.hasNext()) {
+				final Path f = files.next();
+				// each job gets its own copy of the options, since they are modified while running
+				final HashMap<String, String> fileProps = new HashMap<>(props);
+				batch.submit(toKey(f), ()->convert(f, fileProps));
+			}
+		} finally {
+			batch.awaitCompletion();
+			convert.awaitValidation(System.out);
+			if (manifest!=null) {
+				try {
+					manifest.save();
+				} catch (IOException e) {
+					logger.log(Level.WARNING, "Failed to write manifest.", e);
+				}
+			}
+			batch.printSummary(System.out);
+			logger.info(SharedServices.getTaskSystemCache().toString());
+			logger.info(SharedServices.getIdentificationCache().toString());
+		}
+	}
+
+	private boolean convert(Path f, HashMap<String, String> fileProps) throws InternalTaskException, IOException {
+		File in = f.toFile();
+		File out = getOutputFile(f);
+		String hash = null;
+		String key = toKey(f);
+		if (manifest!=null) {
+			hash = ConvertManifest.hash(in);
+			if (manifest.isUpToDate(key, hash)) {
+				logger.fine("Skipping unchanged file " + f);
+				return false;
+			}
+			manifest.remove(key);
+		}
+		Files.createDirectories(out.getParentFile().toPath());
+		if (manifest!=null) {
+			// only valid results are recorded, together with all of the files that were produced
+			final String h = hash;
+			convert.runDotify(in, out, context, fileProps, files->manifest.put(key, h, files));
+		} else {
+			convert.runDotify(in, out, context, fileProps);
+		}
+		return true;
+	}
+
+	private String toKey(Path f) {
+		return input.relativize(f).toString().replace(File.separatorChar, '/');
+	}
+
+	File getOutputFile(Path f) {
+		return FileBatch.outputFile(output, input.relativize(f), ext);
+	}
+
+	/**
+	 * Watches the input directory and converts files as they are added or modified.
+	 * This method returns when the input directory can no longer be watched.
+	 * @param debounce the time to wait for more changes, in milliseconds
+	 * @throws IOException if the input directory cannot be watched
+	 * @throws InterruptedException if interrupted while watching
+	 */
+	void watch(long debounce) throws IOException, InterruptedException {
+		try (FileWatcher watcher = new FileWatcher(debounce)) {
+			watcher.register(input, recursive);
+			while (watcher.isWatching()) {
+				logger.info("Waiting for changes in " + input);
+				Set<Path> changed = watcher.poll();
+				List<Path> files = changed.stream()
+						.filter(this::accept)
+						.collect(Collectors.toList());
+				if (!files.isEmpty()) {
+					run(files);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,192 @@
+package org.daisy.dotify.cli;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+/**
+ * Provides a record of the files converted in a batch, stored in the output folder.
+ * For each input file that was converted successfully, the manifest stores a hash of
+ * the file contents and the output files that were produced. The manifest
+ * also stores the tool version and a hash of the effective options. If either of
+ * these has changed since the manifest was written, all files are considered modified.
+ */
+class ConvertManifest {
+	private static final Logger logger = Logger.getLogger(ConvertManifest.class.getCanonicalName());
+	/**
+	 * Defines the file name of the manifest
+	 */
+	static final String FILE_NAME = ".dotify-manifest.xml";
+	private static final String HASH_ALGORITHM = "SHA-256";
+	private static final String ENTRY_PREFIX = "file:";
+	private static final String OUTPUTS_PREFIX = "outputs:";
+	private static final String OUTPUTS_SEPARATOR = "\t";
+	private static final String VERSION_KEY = "version";
+	private static final String OPTIONS_KEY = "options";
+	private final File file;
+	private final Properties entries;
+
+	private ConvertManifest(File file, Properties entries) {
+		this.file = file;
+		this.entries = entries;
+	}
+
+	/**
+	 * Loads the manifest in the specified output folder. If there is no manifest, or
+	 * if it was written by another version or with other options, an empty manifest
+	 * is returned.
+	 * @param outputFolder the output folder
+	 * @param options the options, as supplied on the command line
+	 * @return the manifest
+	 */
+	static ConvertManifest load(File outputFolder, Map<String, String> options) {
+		File f = new File(outputFolder, FILE_NAME);
+		String version = SystemProperties.SYSTEM_RELEASE + " " + SystemProperties.SYSTEM_BUILD;
+		String optionsHash = optionsHash(options);
+		Properties p = new Properties();
+		if (f.isFile()) {
+			try (InputStream is = new FileInputStream(f)) {
+				p.loadFromXML(is);
+			} catch (IOException e) {
+				logger.log(Level.WARNING, "Failed to read " + f + ", converting all files.", e);
+				p.clear();
+			}
+			if (!version.equals(p.getProperty(VERSION_KEY))) {
+				logger.info("The version has changed since the last run, converting all files.");
+				p.clear();
+			} else if (!optionsHash.equals(p.getProperty(OPTIONS_KEY))) {
+				logger.info("The options have changed since the last run, converting all files.");
+				p.clear();
+			}
+		}
+		p.setProperty(VERSION_KEY, version);
+		p.setProperty(OPTIONS_KEY, optionsHash);
+		return new ConvertManifest(f, p);
+	}
+
+	/**
+	 * Returns true if the input file has not changed since it was converted
+	 * and all of the output files still exist.
+	 * @param key the key for the input file
+	 * @param hash the hash of the input file
+	 * @return true if the output is up to date, false otherwise
+	 */
+	boolean isUpToDate(String key, String hash) {
+		String outputs = entries.getProperty(OUTPUTS_PREFIX + key);
+		if (!hash.equals(entries.getProperty(ENTRY_PREFIX + key)) || outputs==null || "".equals(outputs)) {
+			return false;
+		}
+		File folder = file.getParentFile();
+		for (String s : outputs.split(OUTPUTS_SEPARATOR)) {
+			if (!new File(folder, s).exists()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Records that an input file has been converted successfully.
+	 * @param key the key for the input file
+	 * @param hash the hash of the input file
+	 * @param outputs the output files that were produced, in the output folder
+	 */
+	void put(String key, String hash, List<File> outputs) {
+		Path folder = file.getParentFile().toPath().toAbsolutePath();
+		String value = outputs.stream()
+				.map(f->folder.relativize(f.toPath().toAbsolutePath()).toString().replace(File.separatorChar, '/'))
+				.collect(Collectors.joining(OUTPUTS_SEPARATOR));
+		// called from the validation threads in the background, the properties are synchronized
+		entries.setProperty(OUTPUTS_PREFIX + key, value);
+		entries.setProperty(ENTRY_PREFIX + key, hash);
+	}
+
+	/**
+	 * Removes the record for an input file.
+	 * @param key the key for the input file
+	 */
+	void remove(String key) {
+		entries.remove(ENTRY_PREFIX + key);
+		entries.remove(OUTPUTS_PREFIX + key);
+	}
+
+	/**
+	 * Writes the manifest to the output folder.
+	 * @throws IOException if the manifest could not be written
+	 */
+	void save() throws IOException {
+		try (OutputStream os = new FileOutputStream(file)) {
+			entries.storeToXML(os, "Dotify batch manifest. Delete this file to convert all files in the next run.");
+		}
+	}
+
+	/**
+	 * Computes the hash of a file.
+	 * @param f the file
+	 * @return the hash, as a hexadecimal string
+	 * @throws IOException if the file could not be read
+	 */
+	static String hash(File f) throws IOException {
+		MessageDigest md = newMessageDigest();
+		byte[] buffer = new byte[65536];
+		try (InputStream is = new FileInputStream(f)) {
+			int len;
+			while ((len = is.read(buffer))>-1) {
+				md.update(buffer, 0, len);
+			}
+		}
+		return toHex(md.digest());
+	}
+
+	private static String optionsHash(Map<String, String> options) {
+		Map<String, String> p = new HashMap<>(options);
+		// validation does not change the result
+		p.remove(Convert.VALIDATE_KEY);
+		// This is the same map that is used when running, except for the values
+		// that are specific to a single input file.
+		Map<String, Object> rp = new TreeMap<>(Convert.loadSetup(p, p.remove("preset")));
+		MessageDigest md = newMessageDigest();
+		md.update(rp.toString().getBytes(StandardCharsets.UTF_8));
+		String config = options.get("config");
+		if (config!=null && !"".equals(config)) {
+			try {
+				md.update(hash(new File(config)).getBytes(StandardCharsets.UTF_8));
+			} catch (IOException e) {
+				logger.log(Level.FINE, "Failed to read " + config, e);
+			}
+		}
+		return toHex(md.digest());
+	}
+
+	private static MessageDigest newMessageDigest() {
+		try {
+			return MessageDigest.getInstance(HASH_ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			// every implementation of the Java platform supports SHA-256
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuilder sb = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			sb.append(String.format("%02x", b & 0xff));
+		}
+		return sb.toString();
+	}
+}
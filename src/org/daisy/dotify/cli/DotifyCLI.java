@@ -44,6 +44,7 @@ public class DotifyCLI implements CommandDetails {
 	public static final String INSPECT = "inspect";
 	public static final String CONVERT = "convert";
 	public static final String TRANSLATE = "translate";
+	public static final String SERVE = "serve";
 	
 	protected static final String META_KEY = "meta";
 	private static final String VERSION_KEY = "version";
@@ -72,6 +73,7 @@ public class DotifyCLI implements CommandDetails {
 		putCommand(VALIDATE, "validates a file", ValidateCLI.class);
 		putCommand(INSPECT, "lists metadata about a PEF-file", PEFInfo.class);
 		putCommand(FIND, "finds PEF-files based on file metadata", FindPEF.class);
+		putCommand(SERVE, "runs a local conversion server", ServeCLI.class);
 
 		//Compatibility commands
 		putCommand(TEXT2PEF, "upgrades braille text to pef", TextParser.class);
@@ -27,6 +27,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.prefs.BackingStoreException;
 
+import javax.print.PrintException;
 import javax.print.PrintService;
 import javax.xml.parsers.ParserConfigurationException;
 
@@ -86,6 +87,9 @@ class EmbossPEF implements CommandDetails {
 	public static final String KEY_RANGE = "range";
 	public static final String KEY_COPIES = "copies";
 	public static final String KEY_DIR = "dir";
+	public static final String KEY_PAGES_PER_JOB = "pages-per-job";
+	// the number of rendered jobs that may wait for the device
+	private static final int TRANSMIT_QUEUE_SIZE = 2;
 
 	private final List<Argument> reqArgs;
 	private final List<OptionalArgument> optionalArgs;
@@ -110,6 +114,7 @@ class EmbossPEF implements CommandDetails {
 		optionalArgs.add(new OptionalArgument(KEY_RANGE, "Emboss a range of pages", "1-"));
 		optionalArgs.add(new OptionalArgument(KEY_COPIES, "Set copies", "1"));
 		optionalArgs.add(new OptionalArgument(KEY_DIR, "Send the embosser data to a folder instead of the specified device.", ""));
+		optionalArgs.add(new OptionalArgument(KEY_PAGES_PER_JOB, "Split the file into jobs of at least this many pages, so that the embosser can start while the rest of the file is rendered. Jobs only end where a new sheet starts.", "[whole file]"));
 		this.switches = new SwitchMap.Builder()
 				.addSwitch(new SwitchArgument("clear", "settings", "clear", "To clear settings"))
 				.addSwitch(new SwitchArgument("setup", "settings", "setup", "To change setup"))
@@ -302,17 +307,45 @@ class EmbossPEF implements CommandDetails {
 			if (!ok) {
 				ExitCode.UNEXPECTED_RESOURCE_CONTENTS.exitSystem("Validation failed, exiting...");
 			}
-			for (int i=0; i<copies; i++) {
-				EmbosserWriter embosserObj = ui.getEmbosser().newEmbosserWriter(device);
-				PEFHandler.Builder builder = new PEFHandler.Builder(embosserObj);
-				String range = p.get(KEY_RANGE);
-				if (range!=null && range!="") {
-					builder.range(Range.parseRange(range));
+			int pagesPerJob = 0;
+			String pagesPerJobStr = p.get(KEY_PAGES_PER_JOB);
+			if (pagesPerJobStr!=null && !"".equals(pagesPerJobStr)) {
+				try {
+					pagesPerJob = Integer.parseInt(pagesPerJobStr);
+				} catch (NumberFormatException e) {
+					pagesPerJob = -1;
 				}
-				PEFHandler ph = builder.build();
-				new PEFConverterFacade(EmbosserCatalog.newInstance()).parsePefFile(input, ph);
+				if (pagesPerJob<1) {
+					ExitCode.ILLEGAL_ARGUMENT_VALUE.exitSystem("Illegal value for argument " + KEY_PAGES_PER_JOB + ": " + pagesPerJobStr);
+				}
+			}
+			String range = p.get(KEY_RANGE);
+			boolean hasRange = range!=null && !"".equals(range);
+			// render each job once, while the previous job is being transmitted
+			QueuedDevice queued = new QueuedDevice(device, TRANSMIT_QUEUE_SIZE, copies);
+			boolean rendered = false;
+			try {
+				if (pagesPerJob>0 && !hasRange) {
+					// the file is parsed once, and each job is transmitted as soon as it has been rendered
+					PEFJobSplitter.split(input, pagesPerJob, ()->new PEFHandler.Builder(ui.getEmbosser().newEmbosserWriter(queued)).build());
+				} else {
+					EmbosserWriter embosserObj = ui.getEmbosser().newEmbosserWriter(queued);
+					PEFHandler.Builder builder = new PEFHandler.Builder(embosserObj);
+					if (hasRange) {
+						builder.range(Range.parseRange(range));
+					}
+					PEFHandler ph = builder.build();
+					new PEFConverterFacade(SharedServices.getEmbosserCatalog()).parsePefFile(input, ph);
+				}
+				rendered = true;
+			} finally {
+				// don't send the jobs that were rendered before the failure, or their copies
+				if (!rendered) {
+					queued.abort();
+				}
+				queued.close();
 			}
-		} catch (IOException | ParserConfigurationException | SAXException | UnsupportedWidthException e) {
+		} catch (IOException | ParserConfigurationException | SAXException | UnsupportedWidthException | PrintException e) {
 			e.printStackTrace();
 		}
 	}
@@ -0,0 +1,115 @@
+package org.daisy.dotify.cli;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+/**
+ * Provides a batch of file to file conversions. The input is a folder or a glob
+ * pattern, and each output file is placed in the output folder, at the same
+ * relative path as the input file. See {@link #outputFile(Path, Path, String)}
+ * for how output files are named.
+ */
+class FileBatch {
+	private final String input;
+	private final Path base;
+	private final File output;
+	private final String ext;
+	private final boolean recursive;
+	private final int threads;
+
+	/**
+	 * Provides a conversion of a single file in the batch.
+	 */
+	interface FileJob {
+		/**
+		 * Converts a file.
+		 * @param input the input file
+		 * @param output the output file, the parent folder exists
+		 * @throws Exception if the conversion fails
+		 */
+		void run(File input, File output) throws Exception;
+	}
+
+	/**
+	 * Creates a new batch.
+	 * @param input the input folder or glob pattern
+	 * @param output the output folder
+	 * @param ext the output file extension, without the period
+	 * @param recursive true if files in subfolders of an input folder should be included
+	 * @param threads the number of files to convert at the same time
+	 */
+	FileBatch(String input, File output, String ext, boolean recursive, int threads) {
+		this.input = input;
+		this.base = InputFiles.base(input);
+		this.output = output;
+		this.ext = ext;
+		this.recursive = recursive;
+		this.threads = threads;
+	}
+
+	/**
+	 * Returns true if the input should be processed as a batch, that is if
+	 * it is a folder or a glob pattern.
+	 * @param input the input
+	 * @return true if the input is a batch, false otherwise
+	 */
+	static boolean isBatch(String input) {
+		File f = new File(input);
+		return f.isDirectory() || (!f.exists() && InputFiles.isGlob(input));
+	}
+
+	/**
+	 * Runs the batch and prints a summary.
+	 * @param job the conversion to apply to each file
+	 * @param summary the print stream to print the summary to
+	 * @return true if all files were converted, false otherwise
+	 * @throws IOException if the input cannot be listed
+	 * @throws InterruptedException if interrupted while running
+	 */
+	boolean run(FileJob job, PrintStream summary) throws IOException, InterruptedException {
+		BatchRunner runner = new BatchRunner(threads);
+		try (Stream<Path> files = InputFiles.list(input, recursive)) {
+			Iterator<Path> i = files.iterator();
+			while (i.hasNext()) {
+				Path f = i.next();
+				File out = getOutputFile(f);
+				runner.submit(f.toString(), ()->{
+					Files.createDirectories(out.getParentFile().toPath());
+					job.run(f.toFile(), out);
+					return true;
+				});
+			}
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		} finally {
+			runner.awaitCompletion();
+		}
+		runner.printSummary(summary);
+		return runner.getFailures().isEmpty();
+	}
+
+	File getOutputFile(Path f) {
+		return outputFile(output.toPath(), base.toString().isEmpty() ? f : base.relativize(f), ext);
+	}
+
+	/**
+	 * Gets the output file for an input file in a batch. The output file has the same
+	 * relative path in the output folder as the input file, and its name is the name
+	 * of the input file with the output extension added, for example <code>book.xml.pef</code>.
+	 * The extension is added rather than replaced, so that input files that only differ
+	 * in extension don't get the same output file. This rule is used by all batch modes.
+	 * @param outputFolder the output folder
+	 * @param rel the path of the input file, relative to the input folder
+	 * @param ext the output file extension, without the period
+	 * @return the output file
+	 */
+	static File outputFile(Path outputFolder, Path rel, String ext) {
+		return outputFolder.resolve(rel).resolveSibling(rel.getFileName() + "." + ext).toFile();
+	}
+}
@@ -0,0 +1,133 @@
+package org.daisy.dotify.cli;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * Provides a file system watcher for directories. Events are debounced, that is to say
+ * that changes are collected until no new events have arrived for a given amount of
+ * time, and then reported together. This way, a burst of writes to a file results
+ * in a single change.
+ */
+class FileWatcher implements Closeable {
+	private static final Logger logger = Logger.getLogger(FileWatcher.class.getCanonicalName());
+	private final WatchService service;
+	private final Map<WatchKey, Path> keys;
+	private final Set<WatchKey> recursive;
+	private final long debounce;
+
+	/**
+	 * Creates a new file watcher.
+	 * @param debounce the time to wait for more events, in milliseconds
+	 * @throws IOException if the watch service cannot be created
+	 */
+	FileWatcher(long debounce) throws IOException {
+		this.service = FileSystems.getDefault().newWatchService();
+		this.keys = new HashMap<>();
+		this.recursive = new HashSet<>();
+		this.debounce = debounce;
+	}
+
+	/**
+	 * Starts watching a directory.
+	 * @param dir the directory
+	 * @param subfolders true if subfolders should be watched as well, including subfolders created later
+	 * @throws IOException if the directory cannot be watched
+	 */
+	void register(Path dir, boolean subfolders) throws IOException {
+		if (subfolders) {
+			Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+				@Override
+				public FileVisitResult preVisitDirectory(Path d, BasicFileAttributes attrs) throws IOException {
+					recursive.add(register(d));
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		} else {
+			register(dir);
+		}
+	}
+
+	private WatchKey register(Path dir) throws IOException {
+		WatchKey key = dir.register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+		keys.put(key, dir);
+		return key;
+	}
+
+	/**
+	 * Returns true if at least one directory is being watched.
+	 * @return true if watching, false otherwise
+	 */
+	boolean isWatching() {
+		return !keys.isEmpty();
+	}
+
+	/**
+	 * Waits for changes. This method blocks until there is at least one change and then
+	 * until no new changes have arrived for the debounce time.
+	 * @return the paths that were created, modified or deleted
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	Set<Path> poll() throws InterruptedException {
+		Set<Path> changed = new LinkedHashSet<>();
+		WatchKey key = service.take();
+		while (key!=null) {
+			process(key, changed);
+			key = service.poll(debounce, TimeUnit.MILLISECONDS);
+		}
+		return changed;
+	}
+
+	private void process(WatchKey key, Set<Path> changed) {
+		Path dir = keys.get(key);
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (event.kind()==StandardWatchEventKinds.OVERFLOW) {
+				logger.warning("Some changes in " + dir + " may have been lost.");
+				continue;
+			}
+			Path child = dir.resolve((Path)event.context());
+			if (event.kind()==StandardWatchEventKinds.ENTRY_CREATE && recursive.contains(key)
+					&& Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+				try {
+					register(child, true);
+					// files may have been added before the directory was registered
+					try (Stream<Path> s = Files.walk(child)) {
+						s.filter(Files::isRegularFile).forEach(changed::add);
+					}
+				} catch (IOException e) {
+					logger.warning("Cannot watch " + child + ": " + e.getMessage());
+				}
+			}
+			changed.add(child);
+		}
+		if (!key.reset()) {
+			keys.remove(key);
+			recursive.remove(key);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		service.close();
+	}
+
+}
@@ -22,21 +22,24 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.LineNumberReader;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
 
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.xpath.XPathExpressionException;
-
-import org.daisy.braille.utils.pef.PEFBook;
-import org.daisy.braille.utils.pef.PEFBookLoader;
-import org.daisy.braille.utils.pef.PEFSearchIndex;
 import org.daisy.dotify.cli.pefinfo.Detail;
 import org.daisy.dotify.cli.pefinfo.DetailSet;
 import org.daisy.dotify.cli.pefinfo.PEFBookInfo;
+import org.daisy.dotify.cli.pefinfo.PEFSummary;
 import org.daisy.dotify.cli.pefinfo.URIDetail;
 import org.daisy.dotify.common.io.FileIO;
 import org.daisy.streamline.cli.Argument;
@@ -47,7 +50,6 @@ import org.daisy.streamline.cli.ExitCode;
 import org.daisy.streamline.cli.OptionalArgument;
 import org.daisy.streamline.cli.SwitchArgument;
 import org.daisy.streamline.cli.SwitchMap;
-import org.xml.sax.SAXException;
 
 /**
  * Provides a UI for finding PEF-files. Not for public use.
@@ -55,6 +57,7 @@ import org.xml.sax.SAXException;
  * @author Joel Håkansson
  */
 class FindPEF implements CommandDetails {
+	private static final Logger logger = Logger.getLogger(FindPEF.class.getCanonicalName());
 	private final List<Argument> reqArgs;
 	private final List<OptionalArgument> optionalArgs;
 	private final SwitchMap switches;
@@ -63,11 +66,17 @@ class FindPEF implements CommandDetails {
 	private static final String FOLDER_KEY = "folder";
 	private static final String RECURSIVE_KEY = "recursive";
 	private static final String INTERACTIVE_KEY = "interactive";
+	private static final String INDEX_KEY = "index";
+	private static final String THREADS_KEY = "threads";
+	private static final long SHUTDOWN_TIMEOUT = 10000;
+	private static final long WATCH_DEBOUNCE_TIME = 500;
 
 	public FindPEF() {
 		reqArgs = new ArrayList<Argument>();
 		optionalArgs = new ArrayList<OptionalArgument>();
 		optionalArgs.add(new OptionalArgument(FOLDER_KEY, "Folder path", (new File("")).getAbsolutePath()));
+		optionalArgs.add(new OptionalArgument(INDEX_KEY, "Path to the index file, which is updated with new and modified books in each run", "[user home]/.dotify/find/[folder hash].idx"));
+		optionalArgs.add(new OptionalArgument(THREADS_KEY, "The number of files to read at the same time when scanning", "" + BatchRunner.defaultThreads()));
 		this.switches = new SwitchMap.Builder()
 				.addSwitch(new SwitchArgument('r', RECURSIVE_KEY, "true", "Include subfolders in the scan."))
 				.addSwitch(new SwitchArgument('i', INTERACTIVE_KEY, "true", "Starts an interactive shell for repeated queries."))
@@ -94,47 +103,152 @@ class FindPEF implements CommandDetails {
 		}
 
 		boolean recursive = Boolean.parseBoolean(pr.getOptional().get(RECURSIVE_KEY));
-		System.out.println("Scanning books. Wait a while...");
-		PEFSearchIndex search = new PEFSearchIndex();
-		PEFBookLoader loader = new PEFBookLoader();
+		String indexStr = pr.getOptional().get(INDEX_KEY);
+		File indexFile = indexStr!=null && !"".equals(indexStr) ? new File(indexStr) : PEFIndex.defaultFile(dir);
+		PEFIndex search = PEFIndex.load(indexFile);
 		String ext = ".pef";
 		Collection<File> coll = recursive ? FileIO.listFilesRecursive(dir, ext) : Arrays.asList(dir.listFiles((parent, name)->name.endsWith(ext)));
+		Set<String> found = new HashSet<>();
 		for (File f : coll) {
+			found.add(f.getAbsolutePath());
+		}
+		int threads = 1;
+		try {
+			threads = BatchRunner.parseThreads(pr.getOptional().get(THREADS_KEY));
+		} catch (IllegalArgumentException e) {
+			ExitCode.ILLEGAL_ARGUMENT_VALUE.exitSystem(e.getMessage());
+		}
+		PEFScanner scanner = new PEFScanner(search, threads);
+		// If the user aborts the scan, wait for the main thread to save what has been read so far
+		CountDownLatch saved = new CountDownLatch(1);
+		Thread hook = new Thread(()->{
+			scanner.cancel();
 			try {
-				PEFBook p = loader.load(f);
-				if (p!=null) {
-					search.add(p);
-				}
-			} catch (XPathExpressionException | ParserConfigurationException | SAXException | IOException e) {
-				//e.printStackTrace();
+				saved.await(SHUTDOWN_TIMEOUT, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
 			}
-    		System.out.print(".");
+		});
+		Runtime.getRuntime().addShutdownHook(hook);
+		try {
+			scanner.scan(coll, System.out);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			scanner.cancel();
+		}
+		if (!scanner.isCancelled()) {
+			search.retainAll(found);
+		}
+		try {
+			search.save();
+		} catch (IOException e) {
+			logger.log(Level.WARNING, "Failed to write index " + indexFile, e);
+		}
+		saved.countDown();
+		try {
+			Runtime.getRuntime().removeShutdownHook(hook);
+		} catch (IllegalStateException e) {
+			// shutting down
+			return;
+		}
+		if (scanner.isCancelled()) {
+			return;
 		}
-		System.out.println();
 		Collection<Detail> c = new ArrayList<>();
 		c.add(new URIDetail());
 		c.addAll(DetailSet.DEFAULT.newDetailSet());
 		PEFBookInfo pbi = new PEFBookInfo(c);
 		if (!pr.getRequired().isEmpty()) {
-			printResult(pbi, search.containsAll(pr.getRequired()));
+			printResult(pbi, search.search(String.join(" ", pr.getRequired())));
 		}
 		if (pr.getRequired().isEmpty() || Boolean.parseBoolean(pr.getOptional().get(INTERACTIVE_KEY))) {
+			FileWatcher watcher = startWatcher(dir.toPath(), recursive, ext, scanner);
+			// The shell is waiting for input when the user presses Ctrl+C, so the hook
+			// saves the updates made by the watcher itself. The latch makes sure that
+			// the index is saved exactly once.
+			CountDownLatch shellSaved = new CountDownLatch(1);
+			Thread shellHook = new Thread(()->closeAndSave(watcher, search, indexFile, shellSaved));
+			Runtime.getRuntime().addShutdownHook(shellHook);
 			LineNumberReader lnr = new LineNumberReader(new InputStreamReader(System.in));
 			String line;
 			try {
 				System.out.println("> ");
 				while ((line = lnr.readLine())!=null) {
-					printResult(pbi, search.containsAll(line.split("\\s+")));
+					printResult(pbi, search.search(line));
 					System.out.println("> ");
 				}
 			} catch (IOException e) {
 				e.printStackTrace();
 			}
+			try {
+				Runtime.getRuntime().removeShutdownHook(shellHook);
+			} catch (IllegalStateException e) {
+				// shutting down, the hook saves the index
+				return;
+			}
+			closeAndSave(watcher, search, indexFile, shellSaved);
 		}
 	}
+
+	/**
+	 * Stops watching the folder and saves the index, unless it has already been done.
+	 */
+	private static void closeAndSave(FileWatcher watcher, PEFIndex search, File indexFile, CountDownLatch saved) {
+		synchronized (saved) {
+			if (saved.getCount()==0) {
+				return;
+			}
+			if (watcher!=null) {
+				try {
+					watcher.close();
+				} catch (IOException e) {
+					logger.log(Level.FINE, "Failed to close watcher", e);
+				}
+			}
+			try {
+				search.save();
+			} catch (IOException e) {
+				logger.log(Level.WARNING, "Failed to write index " + indexFile, e);
+			}
+			saved.countDown();
+		}
+	}
+
+	/**
+	 * Watches the folder and keeps the index up to date while the interactive shell is running.
+	 * @return the watcher, or null if the folder cannot be watched
+	 */
+	private static FileWatcher startWatcher(Path dir, boolean recursive, String ext, PEFScanner scanner) {
+		FileWatcher watcher;
+		try {
+			watcher = new FileWatcher(WATCH_DEBOUNCE_TIME);
+			watcher.register(dir, recursive);
+		} catch (IOException e) {
+			logger.log(Level.WARNING, "Cannot watch " + dir + ", the index will not be updated while running.", e);
+			return null;
+		}
+		Thread t = new Thread(()->{
+			try {
+				while (watcher.isWatching()) {
+					List<Path> changed = watcher.poll().stream()
+							.filter(p->p.getFileName().toString().endsWith(ext))
+							.collect(Collectors.toList());
+					int n = scanner.update(changed);
+					if (n>0) {
+						logger.info("Updated " + n + " book(s) in the index.");
+					}
+				}
+			} catch (InterruptedException | ClosedWatchServiceException e) {
+				// done
+			}
+		}, "find-watcher");
+		t.setDaemon(true);
+		t.start();
+		return watcher;
+	}
 	
-	private static void printResult(PEFBookInfo pbi, Set<PEFBook> result) {
-		for (PEFBook p : result) {
+	private static void printResult(PEFBookInfo pbi, List<PEFSummary> result) {
+		for (PEFSummary p : result) {
 			pbi.print(p, System.out);
 		}
 	}
@@ -0,0 +1,122 @@
+package org.daisy.dotify.cli;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.daisy.streamline.api.identity.IdentityProvider;
+import org.daisy.streamline.api.media.AnnotatedFile;
+
+/**
+ * Provides a bounded cache of file identifications. Entries are keyed by the absolute
+ * path of the file and are only used if the size and the modification time of the
+ * file are unchanged, so that a file that is rewritten is identified again.
+ * When the cache is full, the least recently used entry is evicted.
+ */
+class IdentificationCache {
+	/**
+	 * Defines the default maximum number of cached identifications
+	 */
+	static final int DEFAULT_MAX_ENTRIES = 1024;
+	private final IdentityProvider provider;
+	private final Map<String, Entry> entries;
+	private long hits;
+	private long misses;
+
+	private static class Entry {
+		private final long size;
+		private final long lastModified;
+		private final AnnotatedFile file;
+
+		private Entry(long size, long lastModified, AnnotatedFile file) {
+			this.size = size;
+			this.lastModified = lastModified;
+			this.file = file;
+		}
+	}
+
+	/**
+	 * Creates a new cache with the default maximum number of entries.
+	 * @param provider the identity provider to use when a file is not in the cache
+	 */
+	IdentificationCache(IdentityProvider provider) {
+		this(provider, DEFAULT_MAX_ENTRIES);
+	}
+
+	/**
+	 * Creates a new cache.
+	 * @param provider the identity provider to use when a file is not in the cache
+	 * @param maxEntries the maximum number of cached identifications
+	 */
+	IdentificationCache(IdentityProvider provider, int maxEntries) {
+		if (maxEntries<1) {
+			throw new IllegalArgumentException("The cache size must be at least 1: " + maxEntries);
+		}
+		this.provider = provider;
+		this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = -4180938417311596372L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+				return size()>maxEntries;
+			}
+		};
+	}
+
+	/**
+	 * Identifies a file. If the file has been identified before and has not been
+	 * modified since, the previous result is returned.
+	 * @param f the file
+	 * @return the annotated file
+	 */
+	AnnotatedFile identify(File f) {
+		String key = f.getAbsolutePath();
+		// read these before identifying, so that a modification during identification causes a miss next time
+		long size = f.length();
+		long lastModified = f.lastModified();
+		synchronized (this) {
+			Entry e = entries.get(key);
+			if (e!=null && e.size==size && e.lastModified==lastModified) {
+				hits++;
+				return e.file;
+			}
+			misses++;
+		}
+		// identification is done outside of the lock, since it reads the file
+		AnnotatedFile ret = provider.identify(f);
+		if (lastModified>0) {
+			synchronized (this) {
+				entries.put(key, new Entry(size, lastModified, ret));
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Removes all entries from the cache.
+	 */
+	synchronized void clear() {
+		entries.clear();
+	}
+
+	/**
+	 * Gets the number of requests that were found in the cache.
+	 * @return the number of hits
+	 */
+	synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Gets the number of requests that were not found in the cache.
+	 * @return the number of misses
+	 */
+	synchronized long getMisses() {
+		return misses;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "Identification cache: " + hits + " hit(s), " + misses + " miss(es), " + entries.size() + " cached";
+	}
+}
@@ -0,0 +1,119 @@
+package org.daisy.dotify.cli;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.stream.Stream;
+
+/**
+ * Provides expansion of command line inputs into files. An input can be
+ * a file, a folder or a glob pattern, such as <code>archive/**&#47;*.pef</code>.
+ * Glob patterns are supported so that they can be quoted to avoid the
+ * argument length limits of the shell, and on platforms where the shell
+ * does not expand them.
+ */
+final class InputFiles {
+
+	private InputFiles() {
+		throw new AssertionError("No instances allowed.");
+	}
+
+	/**
+	 * Returns true if the string contains glob pattern characters.
+	 * @param value the string
+	 * @return true if the string is a glob pattern, false otherwise
+	 */
+	static boolean isGlob(String value) {
+		for (int i = 0; i<value.length(); i++) {
+			if (isGlobChar(value.charAt(i))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean isGlobChar(char c) {
+		return c=='*' || c=='?' || c=='[' || c=='{';
+	}
+
+	/**
+	 * Lists the regular files for an input. The files are listed lazily, and the
+	 * returned stream must be closed after use.
+	 * @param input a file, folder or glob pattern
+	 * @param recursive true if files in subfolders of a folder should be included
+	 * @return a stream of files
+	 * @throws IOException if the input does not exist or cannot be read
+	 */
+	static Stream<Path> list(String input, boolean recursive) throws IOException {
+		File f = new File(input);
+		if (f.isFile()) {
+			return Stream.of(f.toPath());
+		} else if (f.isDirectory()) {
+			return (recursive ? Files.walk(f.toPath()) : Files.list(f.toPath())).filter(Files::isRegularFile);
+		} else if (isGlob(input)) {
+			return glob(input);
+		} else {
+			throw new IOException("File does not exist: " + input);
+		}
+	}
+
+	/**
+	 * Gets the folder that the files of an input are listed from. This is the folder
+	 * itself for a folder, the parent folder for a file and the longest leading part
+	 * without glob characters for a glob pattern.
+	 * @param input a file, folder or glob pattern
+	 * @return the base folder, an empty path if it is the current folder
+	 */
+	static Path base(String input) {
+		File f = new File(input);
+		if (f.isDirectory()) {
+			return f.toPath();
+		} else if (f.isFile()) {
+			Path parent = f.toPath().getParent();
+			return parent==null ? Paths.get("") : parent;
+		} else {
+			String p = input.replace(File.separatorChar, '/');
+			int split = baseLength(p);
+			return split<0 ? Paths.get("") : Paths.get(split==0 ? "/" : p.substring(0, split));
+		}
+	}
+
+	/**
+	 * Gets the position of the last '/' before the first glob character.
+	 * @return the position, or -1 if there is no '/' before the first glob character
+	 */
+	private static int baseLength(String p) {
+		int i = 0;
+		int split = -1;
+		while (i<p.length() && !isGlobChar(p.charAt(i))) {
+			if (p.charAt(i)=='/') {
+				split = i;
+			}
+			i++;
+		}
+		return split;
+	}
+
+	private static Stream<Path> glob(String pattern) throws IOException {
+		String p = pattern.replace(File.separatorChar, '/');
+		// the base is the longest leading part of the pattern without glob characters
+		int split = baseLength(p);
+		Path base = split<0 ? Paths.get("") : Paths.get(split==0 ? "/" : p.substring(0, split));
+		String rest = p.substring(split+1);
+		PathMatcher m = FileSystems.getDefault().getPathMatcher("glob:" + rest);
+		Path start = base.toString().isEmpty() ? Paths.get(".") : base;
+		if (!Files.isDirectory(start)) {
+			throw new IOException("No such folder: " + start);
+		}
+		int depth = rest.contains("**") ? Integer.MAX_VALUE : rest.split("/").length;
+		return Files.walk(start, depth)
+				.filter(Files::isRegularFile)
+				.filter(v->m.matches(start.relativize(v)))
+				.map(v->base.toString().isEmpty() ? start.relativize(v) : v);
+	}
+
+}
@@ -0,0 +1,288 @@
+package org.daisy.dotify.cli;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Provides minimal support for reading and writing JSON, used for machine readable
+ * reports and requests.
+ */
+final class Json {
+	/**
+	 * Defines the maximum nesting depth of objects and arrays when parsing
+	 */
+	static final int MAX_DEPTH = 256;
+
+	private Json() {
+		throw new AssertionError("No instances allowed.");
+	}
+
+	/**
+	 * Quotes a string as a JSON string literal.
+	 * @param value the string, or null
+	 * @return the JSON string literal, or <code>null</code> if the value is null
+	 */
+	static String quote(String value) {
+		if (value==null) {
+			return "null";
+		}
+		StringBuilder sb = new StringBuilder(value.length() + 2);
+		sb.append('"');
+		for (int i = 0; i<value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+				case '"': sb.append("\\\""); break;
+				case '\\': sb.append("\\\\"); break;
+				case '\n': sb.append("\\n"); break;
+				case '\r': sb.append("\\r"); break;
+				case '\t': sb.append("\\t"); break;
+				default:
+					if (c<0x20) {
+						sb.append(String.format("\\u%04x", (int)c));
+					} else {
+						sb.append(c);
+					}
+			}
+		}
+		sb.append('"');
+		return sb.toString();
+	}
+
+	/**
+	 * Converts a value returned by {@link #parse(String)} to JSON. Values of
+	 * other types are written as strings.
+	 * @param value the value
+	 * @return the JSON text
+	 */
+	static String toJson(Object value) {
+		if (value==null) {
+			return "null";
+		} else if (value instanceof Number || value instanceof Boolean) {
+			return value.toString();
+		} else if (value instanceof Map) {
+			StringBuilder sb = new StringBuilder("{");
+			for (Map.Entry<?, ?> e : ((Map<?, ?>)value).entrySet()) {
+				if (sb.length()>1) {
+					sb.append(',');
+				}
+				sb.append(quote(String.valueOf(e.getKey()))).append(':').append(toJson(e.getValue()));
+			}
+			return sb.append('}').toString();
+		} else if (value instanceof List) {
+			StringBuilder sb = new StringBuilder("[");
+			for (Object o : (List<?>)value) {
+				if (sb.length()>1) {
+					sb.append(',');
+				}
+				sb.append(toJson(o));
+			}
+			return sb.append(']').toString();
+		} else {
+			return quote(value.toString());
+		}
+	}
+
+	/**
+	 * Parses a JSON text. Objects are returned as maps, arrays as lists, strings as
+	 * strings, numbers as longs or doubles, and true, false and null as booleans and null.
+	 * @param json the JSON text
+	 * @return the value
+	 * @throws IllegalArgumentException if the text is not valid JSON, or if objects and
+	 * 			arrays are nested deeper than {@link #MAX_DEPTH}
+	 */
+	static Object parse(String json) {
+		Parser p = new Parser(json);
+		Object ret = p.value();
+		p.skipWhitespace();
+		if (p.pos<json.length()) {
+			throw p.error("Unexpected content");
+		}
+		return ret;
+	}
+
+	private static class Parser {
+		private final String s;
+		private int pos;
+		private int depth;
+
+		private Parser(String s) {
+			this.s = s;
+			this.pos = 0;
+			this.depth = 0;
+		}
+
+		private Object value() {
+			skipWhitespace();
+			if (pos>=s.length()) {
+				throw error("Unexpected end of input");
+			}
+			char c = s.charAt(pos);
+			switch (c) {
+				case '{': return nested(this::object);
+				case '[': return nested(this::array);
+				case '"': return string();
+				case 't': return literal("true", Boolean.TRUE);
+				case 'f': return literal("false", Boolean.FALSE);
+				case 'n': return literal("null", null);
+				default:
+					if (c=='-' || (c>='0' && c<='9')) {
+						return number();
+					}
+					throw error("Unexpected character");
+			}
+		}
+
+		// objects and arrays are parsed recursively, so the depth is limited to avoid running out of stack
+		private Object nested(Supplier<Object> parser) {
+			if (depth>=MAX_DEPTH) {
+				throw error("Nesting too deep");
+			}
+			depth++;
+			Object ret = parser.get();
+			depth--;
+			return ret;
+		}
+
+		private Map<String, Object> object() {
+			Map<String, Object> ret = new LinkedHashMap<>();
+			pos++;
+			skipWhitespace();
+			if (peek()=='}') {
+				pos++;
+				return ret;
+			}
+			while (true) {
+				skipWhitespace();
+				if (peek()!='"') {
+					throw error("Expected a string");
+				}
+				String key = string();
+				skipWhitespace();
+				expect(':');
+				ret.put(key, value());
+				skipWhitespace();
+				if (peek()==',') {
+					pos++;
+				} else {
+					expect('}');
+					return ret;
+				}
+			}
+		}
+
+		private List<Object> array() {
+			List<Object> ret = new ArrayList<>();
+			pos++;
+			skipWhitespace();
+			if (peek()==']') {
+				pos++;
+				return ret;
+			}
+			while (true) {
+				ret.add(value());
+				skipWhitespace();
+				if (peek()==',') {
+					pos++;
+				} else {
+					expect(']');
+					return ret;
+				}
+			}
+		}
+
+		private String string() {
+			pos++;
+			StringBuilder sb = new StringBuilder();
+			while (true) {
+				if (pos>=s.length()) {
+					throw error("Unterminated string");
+				}
+				char c = s.charAt(pos++);
+				if (c=='"') {
+					return sb.toString();
+				} else if (c=='\\') {
+					if (pos>=s.length()) {
+						throw error("Unterminated string");
+					}
+					char e = s.charAt(pos++);
+					switch (e) {
+						case '"': sb.append('"'); break;
+						case '\\': sb.append('\\'); break;
+						case '/': sb.append('/'); break;
+						case 'b': sb.append('\b'); break;
+						case 'f': sb.append('\f'); break;
+						case 'n': sb.append('\n'); break;
+						case 'r': sb.append('\r'); break;
+						case 't': sb.append('\t'); break;
+						case 'u':
+							if (pos + 4>s.length()) {
+								throw error("Invalid escape");
+							}
+							try {
+								sb.append((char)Integer.parseInt(s.substring(pos, pos + 4), 16));
+							} catch (NumberFormatException ex) {
+								throw error("Invalid escape");
+							}
+							pos += 4;
+							break;
+						default:
+							throw error("Invalid escape");
+					}
+				} else {
+					sb.append(c);
+				}
+			}
+		}
+
+		private Object number() {
+			int start = pos;
+			while (pos<s.length() && "+-0123456789.eE".indexOf(s.charAt(pos))>=0) {
+				pos++;
+			}
+			String n = s.substring(start, pos);
+			try {
+				if (n.indexOf('.')<0 && n.indexOf('e')<0 && n.indexOf('E')<0) {
+					return Long.parseLong(n);
+				}
+				return Double.parseDouble(n);
+			} catch (NumberFormatException e) {
+				throw error("Invalid number");
+			}
+		}
+
+		private Object literal(String word, Object value) {
+			if (!s.startsWith(word, pos)) {
+				throw error("Unexpected character");
+			}
+			pos += word.length();
+			return value;
+		}
+
+		private char peek() {
+			if (pos>=s.length()) {
+				throw error("Unexpected end of input");
+			}
+			return s.charAt(pos);
+		}
+
+		private void expect(char c) {
+			if (peek()!=c) {
+				throw error("Expected '" + c + "'");
+			}
+			pos++;
+		}
+
+		private void skipWhitespace() {
+			while (pos<s.length() && Character.isWhitespace(s.charAt(pos))) {
+				pos++;
+			}
+		}
+
+		private IllegalArgumentException error(String msg) {
+			return new IllegalArgumentException(msg + " at position " + pos);
+		}
+	}
+}
@@ -0,0 +1,102 @@
+package org.daisy.dotify.cli;
+
+import org.daisy.dotify.api.table.BrailleConverter;
+
+/**
+ * Provides a fast path for converting braille patterns into table characters.
+ * The table is compiled into a lookup array that covers all 256 patterns in the
+ * unicode braille block (U+2800-U+28FF), so that converting a string is a single
+ * loop over its characters without calls to the table. Patterns that the table
+ * maps to more or less than one character, or doesn't support, and characters
+ * outside of the braille block, are passed to the table one at a time. Tables
+ * convert each pattern on its own, so the result is the same as that of the table.
+ */
+class LookupBrailleConverter {
+	private static final char FIRST = '\u2800';
+	private static final int PATTERNS = 256;
+	// marks a pattern that must be converted by the table
+	private static final char UNMAPPED = '\uffff';
+	private final BrailleConverter bc;
+	private final char[] lookup;
+	private final boolean identity;
+
+	private LookupBrailleConverter(BrailleConverter bc, char[] lookup) {
+		this.bc = bc;
+		this.lookup = lookup;
+		boolean id = true;
+		for (int i = 0; i<PATTERNS; i++) {
+			if (lookup[i]!=FIRST + i) {
+				id = false;
+				break;
+			}
+		}
+		this.identity = id;
+	}
+
+	/**
+	 * Compiles a braille converter into a lookup array.
+	 * @param bc the braille converter
+	 * @return a new lookup braille converter
+	 */
+	static LookupBrailleConverter compile(BrailleConverter bc) {
+		char[] lookup = new char[PATTERNS];
+		for (int i = 0; i<PATTERNS; i++) {
+			lookup[i] = UNMAPPED;
+			try {
+				String t = bc.toText(String.valueOf((char)(FIRST + i)));
+				if (t!=null && t.length()==1 && t.charAt(0)!=UNMAPPED) {
+					lookup[i] = t.charAt(0);
+				}
+			} catch (RuntimeException e) {
+				// not supported by the table, leave it to the table to report it if it occurs
+			}
+		}
+		return new LookupBrailleConverter(bc, lookup);
+	}
+
+	/**
+	 * Converts braille patterns into table characters.
+	 * @param braille the braille patterns
+	 * @return the text
+	 * @throws IllegalArgumentException if the table cannot convert a character
+	 */
+	String toText(String braille) {
+		if (identity && isBraille(braille)) {
+			return braille;
+		}
+		StringBuilder sb = new StringBuilder(braille.length());
+		toText(braille, sb);
+		return sb.toString();
+	}
+
+	/**
+	 * Converts braille patterns into table characters and appends the result to a
+	 * string builder.
+	 * @param braille the braille patterns
+	 * @param out the string builder to append to
+	 * @throws IllegalArgumentException if the table cannot convert a character
+	 */
+	void toText(CharSequence braille, StringBuilder out) {
+		int len = braille.length();
+		for (int i = 0; i<len; i++) {
+			char c = braille.charAt(i);
+			int p = c - FIRST;
+			char t = p>=0 && p<PATTERNS ? lookup[p] : UNMAPPED;
+			if (t!=UNMAPPED) {
+				out.append(t);
+			} else {
+				out.append(bc.toText(String.valueOf(c)));
+			}
+		}
+	}
+
+	private static boolean isBraille(String s) {
+		for (int i = 0; i<s.length(); i++) {
+			int p = s.charAt(i) - FIRST;
+			if (p<0 || p>=PATTERNS) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
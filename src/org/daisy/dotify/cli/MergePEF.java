@@ -18,17 +18,12 @@
 package org.daisy.dotify.cli;
 
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
-import org.daisy.braille.utils.pef.PEFFileMerger;
-import org.daisy.braille.utils.pef.PEFFileMerger.SortType;
-import org.daisy.streamline.api.validity.Validator;
-import org.daisy.streamline.api.validity.ValidatorFactoryMaker;
-import org.daisy.streamline.api.validity.ValidatorFactoryMakerService;
+import org.daisy.dotify.cli.PEFVolumeMerger.SortType;
 import org.daisy.streamline.cli.Argument;
 import org.daisy.streamline.cli.CommandDetails;
 import org.daisy.streamline.cli.CommandParser;
@@ -45,6 +40,8 @@ class MergePEF implements CommandDetails {
 	 * Prefix used for required arguments in the arguments map
 	 */
 	public static final String ARG_PREFIX = "required-";
+	private static final String SORT_KEY = "sort";
+	private static final String THREADS_KEY = "threads";
 	private final CommandParser parser;
 	
 	public MergePEF() {
@@ -53,9 +50,8 @@ class MergePEF implements CommandDetails {
 
 	/**
 	 * @param args
-	 * @throws FileNotFoundException 
 	 */
-	public static void main(String[] args) throws FileNotFoundException {
+	public static void main(String[] args) {
 		MergePEF ui = new MergePEF();
 		if (args.length<3) {
 			System.out.println("Expected three arguments.");
@@ -63,28 +59,44 @@ class MergePEF implements CommandDetails {
 			ui.parser.displayHelp(System.out);
 			ExitCode.MISSING_ARGUMENT.exitSystem();
 		}
-		ValidatorFactoryMakerService factory = ValidatorFactoryMaker.newInstance();
-		Validator validator = factory.newValidator("application/x-pef+xml");
-		if (validator==null) {
-			ExitCode.INTERNAL_ERROR.exitSystem("Failed to locate a validator");
-		}
-		PEFFileMerger merger = new PEFFileMerger(url->validator.validate(url).isValid());
 		File input = new File(args[0]);
 		File output = new File(args[1]);
 		SortType sort = SortType.STANDARD;
+		int threads = BatchRunner.defaultThreads();
 		
 		if (args.length>3) {
 			Map<String, String> p = ui.parser.parse(args).toMap(ARG_PREFIX);
-			String sortString = p.remove("sort");
-			if (sortString.equalsIgnoreCase("alpha")) {
+			String sortString = p.remove(SORT_KEY);
+			if (sortString==null || sortString.equalsIgnoreCase("alpha")) {
 				sort = SortType.STANDARD;
 			} else if (sortString.equalsIgnoreCase("number")) {
 				sort = SortType.NUMERAL_GROUPING;
 			} else {
 				ExitCode.ILLEGAL_ARGUMENT_VALUE.exitSystem("Illegal value for argument sort: " + sortString);
 			}
+			try {
+				threads = BatchRunner.parseThreads(p.remove(THREADS_KEY));
+			} catch (IllegalArgumentException e) {
+				ExitCode.ILLEGAL_ARGUMENT_VALUE.exitSystem(e.getMessage());
+			}
+		}
+		if (!input.isDirectory()) {
+			ExitCode.MISSING_RESOURCE.exitSystem("Cannot find input folder: " + input);
+		}
+		PEFVolumeMerger merger = new PEFVolumeMerger(threads);
+		try {
+			if (!merger.merge(input, output, args[2], sort)) {
+				for (File f : merger.getInvalid()) {
+					System.out.println("Invalid: " + f);
+				}
+				ExitCode.UNEXPECTED_RESOURCE_CONTENTS.exitSystem("Validation failed, exiting...");
+			}
+		} catch (IOException e) {
+			ExitCode.UNEXPECTED_RESOURCE_CONTENTS.exitSystem(e.getMessage());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			ExitCode.INTERNAL_ERROR.exitSystem("Interrupted while validating.");
 		}
-		merger.merge(input, new FileOutputStream(output), args[2], sort);
 	}
 
 	@Override
@@ -113,7 +125,8 @@ class MergePEF implements CommandDetails {
 		ArrayList<Definition> values = new ArrayList<Definition>();
 		values.add(new Definition("alpha", "Sort in alphabetical order (character by character from left to right)"));
 		values.add(new Definition("number", "Sort groups of digits as numbers (from smaller to larger)"));
-		ret.add(new OptionalArgument("sort", "Sorting method to use when determining file order based on file name", values, "alpha"));
+		ret.add(new OptionalArgument(SORT_KEY, "Sorting method to use when determining file order based on file name", values, "alpha"));
+		ret.add(new OptionalArgument(THREADS_KEY, "The number of input files to validate at the same time", "" + BatchRunner.defaultThreads()));
 		return ret;
 	}
 
@@ -0,0 +1,291 @@
+package org.daisy.dotify.cli;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.daisy.braille.utils.pef.PEFConverterFacade;
+import org.daisy.braille.utils.pef.UnsupportedWidthException;
+import org.daisy.dotify.api.embosser.EmbosserFactoryException;
+import org.daisy.streamline.api.media.AnnotatedFile;
+import org.daisy.streamline.api.validity.Validator;
+import org.xml.sax.SAXException;
+
+/**
+ * Provides validation of conversion results. If the result is a valid PEF-file and
+ * a table has been specified, an ASCII-braille file is also written. The ASCII-braille
+ * file is written at the same time as the result is validated.
+ *
+ * <p>Validation can be done directly after the conversion, in the background or
+ * not at all. In the background, validation of one file overlaps with the conversion
+ * of the next. The results of background validation are collected and reported when
+ * {@link #awaitCompletion(PrintStream)} is called.</p>
+ */
+class OutputValidator {
+	private static final Logger logger = Logger.getLogger(OutputValidator.class.getCanonicalName());
+	enum Mode {
+		/**
+		 * Validates the result before the conversion returns
+		 */
+		SYNC,
+		/**
+		 * Validates the result in the background
+		 */
+		ASYNC,
+		/**
+		 * Does not validate the result
+		 */
+		OFF;
+
+		/**
+		 * Parses a mode from a command line value.
+		 * @param value the value, or null
+		 * @return the mode, {@link #SYNC} if the value is null or empty
+		 * @throws IllegalArgumentException if the value is not a mode
+		 */
+		static Mode parse(String value) {
+			if (value==null || "".equals(value)) {
+				return SYNC;
+			}
+			try {
+				return valueOf(value.toUpperCase(Locale.ROOT));
+			} catch (IllegalArgumentException e) {
+				throw new IllegalArgumentException("Unknown validation mode: '" + value + "'", e);
+			}
+		}
+
+		@Override
+		public String toString() {
+			return name().toLowerCase(Locale.ROOT);
+		}
+	}
+	// Each caller waits for its own brl file before returning, so the number of waiting
+	// tasks is bounded by the number of callers. The pool bounds the number of threads.
+	private static final ExecutorService BRL_EXECUTOR = Executors.newFixedThreadPool(BatchRunner.defaultThreads(), r->{
+		Thread t = new Thread(r, "brl-writer");
+		t.setDaemon(true);
+		return t;
+	});
+	private final BrailleUtilsInfo brailleInfo;
+	private final List<String> invalid;
+	private BatchRunner runner;
+
+	/**
+	 * Creates a new output validator.
+	 * @param brailleInfo the braille utils info, used to resolve the table
+	 */
+	OutputValidator(BrailleUtilsInfo brailleInfo) {
+		this.brailleInfo = brailleInfo;
+		this.invalid = Collections.synchronizedList(new ArrayList<String>());
+	}
+
+	/**
+	 * Processes the result of a conversion.
+	 * @param output the result
+	 * @param props the options used for the conversion
+	 * @param mode the validation mode
+	 * @throws IOException if an I/O error occurs
+	 */
+	void process(File output, Map<String, String> props, Mode mode) throws IOException {
+		process(output, props, mode, v->{});
+	}
+
+	/**
+	 * Processes the result of a conversion. If the result is valid, or isn't validated,
+	 * and the ASCII-braille file, if any, has been written, the files that were produced
+	 * are passed to the consumer. In the background, this happens on another thread
+	 * before {@link #awaitCompletion(PrintStream)} returns.
+	 * @param output the result
+	 * @param props the options used for the conversion
+	 * @param mode the validation mode
+	 * @param onSuccess the consumer of the files that were produced
+	 * @throws IOException if an I/O error occurs
+	 */
+	void process(File output, Map<String, String> props, Mode mode, Consumer<List<File>> onSuccess) throws IOException {
+		if (mode==Mode.ASYNC) {
+			final Map<String, String> p = new HashMap<>(props);
+			try {
+				getRunner().submit(output.getPath(), ()->{
+					List<File> files = process(output, p, true);
+					if (files!=null) {
+						onSuccess.accept(files);
+					}
+					return true;
+				});
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting to validate " + output);
+			}
+		} else {
+			List<File> files = process(output, props, mode==Mode.SYNC);
+			if (files!=null) {
+				onSuccess.accept(files);
+			}
+		}
+	}
+
+	private synchronized BatchRunner getRunner() {
+		if (runner==null) {
+			runner = new BatchRunner(BatchRunner.defaultThreads());
+		}
+		return runner;
+	}
+
+	/**
+	 * Waits for background validation to finish and reports the results. If there is no
+	 * background validation, this method returns immediately.
+	 * @param ps the print stream to report to
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	void awaitCompletion(PrintStream ps) throws InterruptedException {
+		BatchRunner r;
+		synchronized (this) {
+			r = runner;
+			runner = null;
+		}
+		if (r==null) {
+			return;
+		}
+		r.awaitCompletion();
+		List<String> failed;
+		synchronized (invalid) {
+			failed = new ArrayList<>(invalid);
+			invalid.clear();
+		}
+		// jobs that threw an exception are failures too (they have been logged by the runner)
+		failed.addAll(r.getFailures());
+		ps.println("Validated " + (r.getSucceeded() + r.getFailures().size()) + " file(s) in the background, "
+				+ failed.size() + " failed.");
+		if (!failed.isEmpty()) {
+			Collections.sort(failed);
+			ps.println("Validation failed:");
+			for (String s : failed) {
+				ps.println("\t" + s);
+			}
+		}
+	}
+
+	/**
+	 * Validates the result and writes the ASCII-braille file, if any.
+	 * @return the files that were produced, or null if the result isn't valid or a file could not be written
+	 */
+	private List<File> process(File output, Map<String, String> props, boolean validate) throws IOException {
+		if (!output.exists()) {
+			return null;
+		}
+		boolean brl = props.containsKey(PEFConverterFacade.KEY_TABLE);
+		if (!validate && !brl) {
+			return Collections.singletonList(output);
+		}
+		String mediaType = getMediaType(output, props);
+		File brlFile = new File(output.getParentFile(), output.getName() + ".brl");
+		boolean writeBrl = brl && ValidatorFacade.PEF_MEDIA_TYPE.equals(mediaType);
+		if (!validate) {
+			if (!writeBrl) {
+				return Collections.singletonList(output);
+			}
+			return writeBrl(output, props, brlFile) ? Arrays.asList(output, brlFile) : null;
+		}
+		Validator validator = null;
+		if (mediaType!=null) {
+			validator = ValidatorFacade.getValidator(mediaType);
+		}
+		if (validator==null) {
+			return Collections.singletonList(output);
+		}
+		// The brl is written while validating, so that the file is read by both at the same time
+		// rather than one after the other. It is written to a temporary file and only kept
+		// if the result is valid.
+		Future<Boolean> brlResult = null;
+		File brlTmp = new File(output.getParentFile(), output.getName() + ".brl.tmp");
+		if (writeBrl) {
+			brlResult = BRL_EXECUTOR.submit(()->writeBrl(output, props, brlTmp));
+		}
+		logger.info(String.format("Validating output using %s", validator.getClass().getName()));
+		boolean valid = validator.validate(output.toURI().toURL()).isValid();
+		if (!valid) {
+			logger.warning("Validation failed: " + output);
+			invalid.add(output.getPath());
+		} else {
+			logger.info("Output is valid.");
+		}
+		if (brlResult==null) {
+			return valid ? Collections.singletonList(output) : null;
+		} else {
+			boolean written = false;
+			try {
+				written = brlResult.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				brlResult.cancel(true);
+				throw new InterruptedIOException("Interrupted while writing " + brlFile);
+			} catch (ExecutionException e) {
+				throw new IOException("Failed to write " + brlFile, e.getCause());
+			} finally {
+				if (!valid || !written) {
+					Files.deleteIfExists(brlTmp.toPath());
+				}
+			}
+			if (valid && written) {
+				Files.move(brlTmp.toPath(), brlFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+				return Arrays.asList(output, brlFile);
+			}
+			return null;
+		}
+	}
+
+	private static String getMediaType(File output, Map<String, String> props) {
+		String format = props.get(SystemKeys.OUTPUT_FORMAT.getKey());
+		if (SystemKeys.PEF_FORMAT.getKey().equals(format)
+				|| ((format==null || "".equals(format)) && output.getName().toLowerCase(Locale.ROOT).endsWith(".pef"))) {
+			// the output is known to be PEF, no need to read it
+			return ValidatorFacade.PEF_MEDIA_TYPE;
+		}
+		AnnotatedFile ao = SharedServices.getIdentificationCache().identify(output);
+		return ao.getMediaType();
+	}
+
+	private boolean writeBrl(File output, Map<String, String> props, File f) throws IOException {
+		HashMap<String, String> p = new HashMap<String, String>();
+		p.put(PEFConverterFacade.KEY_TABLE, props.get(PEFConverterFacade.KEY_TABLE));
+		brailleInfo.getShortFormResolver().expandShortForm(p, PEFConverterFacade.KEY_TABLE);
+		logger.info("Writing brl to " + f.getAbsolutePath());
+		try (OutputStream os = new BufferedOutputStream(new FileOutputStream(f))) {
+			new PEFConverterFacade(SharedServices.getEmbosserCatalog()).parsePefFile(output, os, null, p);
+			return true;
+		} catch (ParserConfigurationException e) {
+			logger.log(Level.FINE, "Parse error when converting to brl", e);
+		} catch (SAXException e) {
+			logger.log(Level.FINE, "SAX error when converting to brl", e);
+		} catch (UnsupportedWidthException e) {
+			logger.log(Level.FINE, "Width error when converting to brl", e);
+		} catch (NumberFormatException e) {
+			logger.log(Level.FINE, "Number format error when converting to brl", e);
+		} catch (EmbosserFactoryException e) {
+			logger.log(Level.FINE, "Embosser error when converting to brl", e);
+		}
+		return false;
+	}
+}
@@ -0,0 +1,429 @@
+package org.daisy.dotify.cli;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+import org.daisy.dotify.cli.pefinfo.PEFSummary;
+
+/**
+ * Provides a persistent index of PEF-files. For each file, the index stores the
+ * size and modification time of the file, a summary of the book and the words
+ * of each metadata field. When a folder is scanned again, only files that have been
+ * added or modified since the previous scan need to be read. Files that could not
+ * be read are recorded as well, so that they are not read again until they change.
+ *
+ * <p>The index is stored in a compact binary format. A file that cannot be read,
+ * or that was written by another version of the format, is ignored, and the index
+ * is rebuilt.</p>
+ */
+class PEFIndex {
+	private static final Logger logger = Logger.getLogger(PEFIndex.class.getCanonicalName());
+	private static final int MAGIC = 0x50454658; // "PEFX"
+	private static final int VERSION = 4;
+	private static final Pattern TOKEN_SEPARATOR = Pattern.compile("[^\\p{L}\\p{N}]+");
+	private final File file;
+	private final TreeMap<String, IndexEntry> entries;
+	private PEFQueryIndex query;
+	private Map<String, Integer> queryDocs;
+	private boolean modified;
+
+	private static class IndexEntry {
+		private final long size;
+		private final long lastModified;
+		// null if the file could not be read
+		private final PEFSummary summary;
+		private final Map<String, String[]> tokens;
+
+		private IndexEntry(long size, long lastModified, PEFSummary summary, Map<String, String[]> tokens) {
+			this.size = size;
+			this.lastModified = lastModified;
+			this.summary = summary;
+			this.tokens = tokens;
+		}
+	}
+
+	private PEFIndex(File file) {
+		this.file = file;
+		this.entries = new TreeMap<>();
+		this.query = null;
+		this.queryDocs = null;
+		this.modified = false;
+	}
+
+	/**
+	 * Gets the default index file for a folder. Indexes are kept in the user's home
+	 * directory rather than in the folder itself, since the folder may be shared or
+	 * read only.
+	 * @param folder the folder that is searched
+	 * @return the index file
+	 */
+	static File defaultFile(File folder) {
+		MessageDigest md;
+		try {
+			md = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			// every implementation of the Java platform supports SHA-256
+			throw new RuntimeException(e);
+		}
+		byte[] hash = md.digest(folder.getAbsolutePath().getBytes(StandardCharsets.UTF_8));
+		StringBuilder name = new StringBuilder();
+		for (int i = 0; i<8; i++) {
+			name.append(String.format("%02x", hash[i] & 0xff));
+		}
+		return Paths.get(System.getProperty("user.home"), ".dotify", "find", name + ".idx").toFile();
+	}
+
+	/**
+	 * Loads an index. If the index does not exist or cannot be read, an empty index is returned.
+	 * @param file the index file
+	 * @return the index
+	 */
+	static PEFIndex load(File file) {
+		PEFIndex ret = new PEFIndex(file);
+		if (file.isFile()) {
+			long length = file.length();
+			try (CountingInputStream count = new CountingInputStream(new BufferedInputStream(new FileInputStream(file), 65536));
+					DataInputStream in = new DataInputStream(count)) {
+				ret.read(in, ()->length - count.count);
+			} catch (IOException | RuntimeException e) {
+				// a runtime exception here means that the file is corrupt
+				logger.log(Level.INFO, "Failed to read index " + file + ", rebuilding.", e);
+				ret.entries.clear();
+				ret.modified = true;
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Returns true if the index contains the file and the file has not been modified since it was indexed.
+	 * @param f the file
+	 * @return true if the entry for the file is up to date, false otherwise
+	 */
+	synchronized boolean isUpToDate(File f) {
+		// this is also true for files that could not be read
+		IndexEntry e = entries.get(f.getAbsolutePath());
+		return e!=null && e.size==f.length() && e.lastModified==f.lastModified();
+	}
+
+	/**
+	 * Adds a file to the index, replacing any previous entry for the file.
+	 * @param f the file
+	 * @param size the size of the file when it was read
+	 * @param lastModified the modification time of the file when it was read
+	 * @param summary the summary of the file
+	 */
+	void put(File f, long size, long lastModified, PEFSummary summary) {
+		IndexEntry e = new IndexEntry(size, lastModified, summary, tokenize(summary));
+		synchronized (this) {
+			String key = f.getAbsolutePath();
+			entries.put(key, e);
+			removeFromQuery(key);
+			if (query!=null) {
+				queryDocs.put(key, query.add(summary, e.tokens));
+			}
+			modified = true;
+		}
+	}
+
+	/**
+	 * Records that a file could not be read, replacing any previous entry for the file.
+	 * The file is not found by searches, but is considered up to date until it is modified.
+	 * @param f the file
+	 * @param size the size of the file when it was read
+	 * @param lastModified the modification time of the file when it was read
+	 */
+	synchronized void putFailed(File f, long size, long lastModified) {
+		String key = f.getAbsolutePath();
+		entries.put(key, new IndexEntry(size, lastModified, null, Collections.emptyMap()));
+		removeFromQuery(key);
+		modified = true;
+	}
+
+	/**
+	 * Removes a file from the index.
+	 * @param f the file
+	 */
+	synchronized void remove(File f) {
+		String key = f.getAbsolutePath();
+		if (entries.remove(key)!=null) {
+			removeFromQuery(key);
+			modified = true;
+		}
+	}
+
+	private void removeFromQuery(String key) {
+		if (query!=null) {
+			Integer doc = queryDocs.remove(key);
+			if (doc!=null) {
+				query.remove(doc);
+				if (query.getDeleted()>query.size()) {
+					// mostly removed documents, rebuild when needed
+					query = null;
+					queryDocs = null;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Removes all entries except those for the specified files.
+	 * @param files the absolute paths of the files to keep
+	 */
+	synchronized void retainAll(Set<String> files) {
+		if (entries.keySet().retainAll(files)) {
+			query = null;
+			queryDocs = null;
+			modified = true;
+		}
+	}
+
+	/**
+	 * Gets the number of files in the index, including those that could not be read.
+	 * @return the number of files
+	 */
+	synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Finds the books that match a query. See {@link PEFQueryIndex} for the query syntax.
+	 * @param q the query
+	 * @return the matching books, best match first
+	 */
+	synchronized List<PEFSummary> search(String q) {
+		if (query==null) {
+			// built on demand, after which it is updated as files are added and removed
+			query = new PEFQueryIndex();
+			queryDocs = new HashMap<>();
+			for (Map.Entry<String, IndexEntry> e : entries.entrySet()) {
+				if (e.getValue().summary!=null) {
+					queryDocs.put(e.getKey(), query.add(e.getValue().summary, e.getValue().tokens));
+				}
+			}
+		}
+		return query.search(q);
+	}
+
+	private static Map<String, String[]> tokenize(PEFSummary summary) {
+		Map<String, String[]> ret = new LinkedHashMap<>();
+		for (String key : summary.getMetadataKeys()) {
+			List<String> tokens = new ArrayList<>();
+			for (String v : summary.getMetadata(key)) {
+				tokens.addAll(Arrays.asList(split(v)));
+			}
+			// fields are matched regardless of case, so keys that only differ in case are combined
+			ret.merge(key.toLowerCase(Locale.ROOT), tokens.toArray(new String[tokens.size()]), PEFIndex::concat);
+		}
+		return ret;
+	}
+
+	private static String[] concat(String[] a, String[] b) {
+		String[] ret = Arrays.copyOf(a, a.length + b.length);
+		System.arraycopy(b, 0, ret, a.length, b.length);
+		return ret;
+	}
+
+	/**
+	 * Splits a string into lower case words.
+	 * @param value the string
+	 * @return the words
+	 */
+	static String[] split(String value) {
+		return Arrays.stream(TOKEN_SEPARATOR.split(value.toLowerCase(Locale.ROOT)))
+				.filter(v->!v.isEmpty())
+				.toArray(String[]::new);
+	}
+
+	/**
+	 * Writes the index to disk, if it has been modified.
+	 * @throws IOException if the index cannot be written
+	 */
+	synchronized void save() throws IOException {
+		if (!modified) {
+			return;
+		}
+		// write to a temporary file first, so that an interrupted write doesn't leave a broken index
+		File parent = file.getAbsoluteFile().getParentFile();
+		Files.createDirectories(parent.toPath());
+		File tmp = new File(parent, file.getName() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 65536))) {
+			write(out);
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		modified = false;
+	}
+
+	private void read(DataInputStream in, Remaining remaining) throws IOException {
+		if (in.readInt()!=MAGIC) {
+			throw new IOException("Not an index file: " + file);
+		}
+		int version = in.readInt();
+		if (version!=VERSION) {
+			throw new IOException("Unsupported index version: " + version);
+		}
+		int count = in.readInt();
+		for (int i = 0; i<count; i++) {
+			String path = readString(in, remaining);
+			long size = in.readLong();
+			long lastModified = in.readLong();
+			if (in.readBoolean()) {
+				entries.put(path, new IndexEntry(size, lastModified, null, Collections.emptyMap()));
+				continue;
+			}
+			PEFSummary.Builder builder = new PEFSummary.Builder(URI.create(readString(in, remaining)))
+					.volumes(in.readInt())
+					.pages(in.readInt())
+					.maxWidth(in.readInt())
+					.maxHeight(in.readInt());
+			int keys = in.readInt();
+			for (int k = 0; k<keys; k++) {
+				String key = readString(in, remaining);
+				int values = in.readInt();
+				for (int v = 0; v<values; v++) {
+					builder.metadata(key, readString(in, remaining));
+				}
+			}
+			Map<String, String[]> tokens = new LinkedHashMap<>();
+			int fields = in.readInt();
+			for (int k = 0; k<fields; k++) {
+				String key = readString(in, remaining);
+				// each word takes at least four bytes
+				String[] t = new String[checkLength(in.readInt(), remaining.get() / 4)];
+				for (int j = 0; j<t.length; j++) {
+					t[j] = readString(in, remaining);
+				}
+				tokens.put(key, t);
+			}
+			entries.put(path, new IndexEntry(size, lastModified, builder.build(), tokens));
+		}
+	}
+
+	private void write(DataOutputStream out) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(entries.size());
+		for (Map.Entry<String, IndexEntry> me : entries.entrySet()) {
+			IndexEntry e = me.getValue();
+			PEFSummary s = e.summary;
+			writeString(out, me.getKey());
+			out.writeLong(e.size);
+			out.writeLong(e.lastModified);
+			out.writeBoolean(s==null);
+			if (s==null) {
+				continue;
+			}
+			writeString(out, s.getURI().toString());
+			out.writeInt(s.getVolumes());
+			out.writeInt(s.getPages());
+			out.writeInt(s.getMaxWidth());
+			out.writeInt(s.getMaxHeight());
+			out.writeInt(s.getMetadataKeys().size());
+			for (String key : s.getMetadataKeys()) {
+				List<String> values = s.getMetadata(key);
+				writeString(out, key);
+				out.writeInt(values.size());
+				for (String v : values) {
+					writeString(out, v);
+				}
+			}
+			out.writeInt(e.tokens.size());
+			for (Map.Entry<String, String[]> t : e.tokens.entrySet()) {
+				writeString(out, t.getKey());
+				out.writeInt(t.getValue().length);
+				for (String v : t.getValue()) {
+					writeString(out, v);
+				}
+			}
+		}
+	}
+
+	// DataOutput.writeUTF is limited to 64 kB, which a description could exceed
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		byte[] b = value.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(b.length);
+		out.write(b);
+	}
+
+	private static String readString(DataInputStream in, Remaining remaining) throws IOException {
+		// a corrupt length must not cause a huge allocation
+		byte[] b = new byte[checkLength(in.readInt(), remaining.get())];
+		in.readFully(b);
+		return new String(b, StandardCharsets.UTF_8);
+	}
+
+	private static int checkLength(int len, long max) throws IOException {
+		if (len<0 || len>max) {
+			throw new IOException("Corrupt index.");
+		}
+		return len;
+	}
+
+	/**
+	 * Provides the number of bytes left to read.
+	 */
+	private interface Remaining {
+		long get();
+	}
+
+	private static class CountingInputStream extends FilterInputStream {
+		private long count = 0;
+
+		private CountingInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int ret = super.read();
+			if (ret>-1) {
+				count++;
+			}
+			return ret;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int ret = super.read(b, off, len);
+			if (ret>0) {
+				count += ret;
+			}
+			return ret;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long ret = super.skip(n);
+			count += ret;
+			return ret;
+		}
+	}
+}
@@ -24,12 +24,10 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.xpath.XPathExpressionException;
-
-import org.daisy.braille.utils.pef.PEFBook;
 import org.daisy.dotify.cli.pefinfo.DetailSet;
 import org.daisy.dotify.cli.pefinfo.PEFBookInfo;
+import org.daisy.dotify.cli.pefinfo.PEFMetadataReader;
+import org.daisy.dotify.cli.pefinfo.PEFSummary;
 import org.daisy.streamline.cli.Argument;
 import org.daisy.streamline.cli.CommandDetails;
 import org.daisy.streamline.cli.CommandParser;
@@ -37,7 +35,6 @@ import org.daisy.streamline.cli.ExitCode;
 import org.daisy.streamline.cli.OptionalArgument;
 import org.daisy.streamline.cli.SwitchArgument;
 import org.daisy.streamline.cli.SwitchMap;
-import org.xml.sax.SAXException;
 
 /**
  * Provides a UI for generating PEF-files. Not for public use.
@@ -64,7 +61,7 @@ class PEFInfo implements CommandDetails {
 		this.parser = CommandParser.create(this);
 	}
 	
-	public static void main(String[] args) throws XPathExpressionException, ParserConfigurationException, SAXException, IOException {
+	public static void main(String[] args) throws IOException {
 		PEFInfo ui = new PEFInfo();
 		if (args.length<1) {
 			System.out.println("Expected at least one more argument.");
@@ -77,7 +74,7 @@ class PEFInfo implements CommandDetails {
 		File input = new File(""+p.remove(ARG_PREFIX+0));
 		
 		System.out.println("Reading " + input);
-		PEFBook book = PEFBook.load(input.toURI());
+		PEFSummary book = new PEFMetadataReader().read(input);
 		PrintStream ps = System.out;
 		ps.println();
 		
@@ -0,0 +1,217 @@
+package org.daisy.dotify.cli;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Splits a PEF-file into several documents, or jobs, while it is parsed. The file
+ * is parsed once and each job is passed to its own handler as soon as it has been read,
+ * so that a job can be embossed while the next one is being read. Each job is a
+ * complete PEF-document: it starts with everything before the first volume, followed
+ * by the volume and section that are open where the job starts.
+ *
+ * <p>A job only ends where a new sheet starts: before a volume, before a section or
+ * before a page. In a double sided section, a new sheet starts on every other page,
+ * counted from the start of the section. A job can therefore contain more pages than
+ * requested, but a sheet is never split between two jobs.</p>
+ */
+class PEFJobSplitter extends DefaultHandler {
+	private static final String VOLUME = "volume";
+	private static final String SECTION = "section";
+	private static final String PAGE = "page";
+	private static final String DUPLEX = "duplex";
+	private final int pagesPerJob;
+	private final Supplier<? extends ContentHandler> jobs;
+	// everything before the first volume, repeated at the start of each job
+	private final List<Event> prolog;
+	// the elements that are currently open, outermost first
+	private final List<StartElement> open;
+	private ContentHandler current;
+	private int prologDepth;
+	private boolean volumeDuplex;
+	private boolean duplex;
+	private int sectionPages;
+	private int jobPages;
+	private int jobCount;
+
+	@FunctionalInterface
+	private interface Event {
+		void send(ContentHandler h) throws SAXException;
+	}
+
+	private static class StartElement implements Event {
+		private final String uri;
+		private final String localName;
+		private final String qName;
+		private final Attributes atts;
+
+		private StartElement(String uri, String localName, String qName, Attributes atts) {
+			this.uri = uri;
+			this.localName = localName;
+			this.qName = qName;
+			this.atts = atts;
+		}
+
+		@Override
+		public void send(ContentHandler h) throws SAXException {
+			h.startElement(uri, localName, qName, atts);
+		}
+
+		private void sendEnd(ContentHandler h) throws SAXException {
+			h.endElement(uri, localName, qName);
+		}
+	}
+
+	/**
+	 * Creates a new splitter.
+	 * @param pagesPerJob the minimum number of pages in each job, except the last
+	 * @param jobs supplies a new handler for each job
+	 * @throws IllegalArgumentException if the number of pages is less than one
+	 */
+	PEFJobSplitter(int pagesPerJob, Supplier<? extends ContentHandler> jobs) {
+		if (pagesPerJob<1) {
+			throw new IllegalArgumentException("The number of pages per job must be at least 1: " + pagesPerJob);
+		}
+		this.pagesPerJob = pagesPerJob;
+		this.jobs = jobs;
+		this.prolog = new ArrayList<>();
+		this.open = new ArrayList<>();
+		this.current = null;
+		this.prologDepth = -1;
+		this.jobCount = 0;
+	}
+
+	/**
+	 * Parses a PEF-file and passes it to the supplied handlers, one handler per job.
+	 * @param input the PEF-file
+	 * @param pagesPerJob the minimum number of pages in each job, except the last
+	 * @param jobs supplies a new handler for each job
+	 * @return the number of jobs
+	 * @throws ParserConfigurationException if a parser cannot be created
+	 * @throws SAXException if the input cannot be parsed or if a handler fails
+	 * @throws IOException if the input cannot be read
+	 */
+	static int split(File input, int pagesPerJob, Supplier<? extends ContentHandler> jobs) throws ParserConfigurationException, SAXException, IOException {
+		SAXParserFactory spf = SAXParserFactory.newInstance();
+		spf.setNamespaceAware(true);
+		PEFJobSplitter splitter = new PEFJobSplitter(pagesPerJob, jobs);
+		spf.newSAXParser().parse(input, splitter);
+		return splitter.getJobCount();
+	}
+
+	/**
+	 * Gets the number of jobs so far.
+	 * @return the number of jobs
+	 */
+	int getJobCount() {
+		return jobCount;
+	}
+
+	@Override
+	public void startDocument() throws SAXException {
+		newJob();
+		add(h->h.startDocument());
+	}
+
+	@Override
+	public void endDocument() throws SAXException {
+		current.endDocument();
+	}
+
+	@Override
+	public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
+		StartElement e = new StartElement(uri, localName, qName, new AttributesImpl(atts));
+		if (PEFXml.PEF_NS.equals(uri)) {
+			if (VOLUME.equals(localName)) {
+				if (prologDepth<0) {
+					prologDepth = open.size();
+				}
+				volumeDuplex = "true".equals(atts.getValue(DUPLEX));
+				newSheet();
+			} else if (SECTION.equals(localName)) {
+				String value = atts.getValue(DUPLEX);
+				duplex = value!=null ? "true".equals(value) : volumeDuplex;
+				sectionPages = 0;
+				newSheet();
+			} else if (PAGE.equals(localName) && (!duplex || sectionPages%2==0)) {
+				newSheet();
+			}
+		}
+		add(e);
+		open.add(e);
+	}
+
+	@Override
+	public void endElement(String uri, String localName, String qName) throws SAXException {
+		add(h->h.endElement(uri, localName, qName));
+		open.remove(open.size()-1);
+		if (PEFXml.PEF_NS.equals(uri) && PAGE.equals(localName)) {
+			sectionPages++;
+			jobPages++;
+		}
+	}
+
+	@Override
+	public void characters(char[] ch, int start, int length) throws SAXException {
+		char[] copy = new char[length];
+		System.arraycopy(ch, start, copy, 0, length);
+		add(h->h.characters(copy, 0, length));
+	}
+
+	@Override
+	public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException {
+		char[] copy = new char[length];
+		System.arraycopy(ch, start, copy, 0, length);
+		add(h->h.ignorableWhitespace(copy, 0, length));
+	}
+
+	/**
+	 * Sends an event to the current job and, if the first volume hasn't started yet,
+	 * adds it to the prolog.
+	 */
+	private void add(Event e) throws SAXException {
+		if (prologDepth<0) {
+			prolog.add(e);
+		}
+		e.send(current);
+	}
+
+	/**
+	 * Called where a new sheet starts. Ends the current job, if it is full, and
+	 * starts a new one with the prolog and the elements that are currently open.
+	 */
+	private void newSheet() throws SAXException {
+		if (jobPages<pagesPerJob) {
+			return;
+		}
+		for (int i = open.size()-1; i>=0; i--) {
+			open.get(i).sendEnd(current);
+		}
+		current.endDocument();
+		newJob();
+		for (Event e : prolog) {
+			e.send(current);
+		}
+		for (int i = prologDepth; i<open.size(); i++) {
+			open.get(i).send(current);
+		}
+	}
+
+	private void newJob() {
+		current = jobs.get();
+		jobPages = 0;
+		jobCount++;
+	}
+}
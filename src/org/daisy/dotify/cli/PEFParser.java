@@ -17,20 +17,30 @@
  */
 package org.daisy.dotify.cli;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import org.daisy.dotify.api.embosser.EmbosserCatalog;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.daisy.dotify.api.embosser.EmbosserFactoryException;
 import org.daisy.dotify.api.embosser.StandardLineBreaks;
 import org.daisy.dotify.api.factory.Factory;
 import org.daisy.dotify.api.factory.FactoryCatalog;
 import org.daisy.dotify.api.factory.FactoryProperties;
 import org.daisy.dotify.api.table.TableCatalog;
 import org.daisy.braille.utils.pef.PEFConverterFacade;
+import org.daisy.braille.utils.pef.UnsupportedWidthException;
 import org.daisy.streamline.cli.Argument;
 import org.daisy.streamline.cli.CommandDetails;
 import org.daisy.streamline.cli.CommandParser;
@@ -38,6 +48,9 @@ import org.daisy.streamline.cli.Definition;
 import org.daisy.streamline.cli.ExitCode;
 import org.daisy.streamline.cli.OptionalArgument;
 import org.daisy.streamline.cli.ShortFormResolver;
+import org.daisy.streamline.cli.SwitchArgument;
+import org.daisy.streamline.cli.SwitchMap;
+import org.xml.sax.SAXException;
 
 /**
  * Reads a PEF-file and outputs a text file.
@@ -49,19 +62,25 @@ class PEFParser implements CommandDetails {
 	 * Prefix used for required arguments in the arguments map
 	 */
 	public static final String ARG_PREFIX = "required-";
+	// the converter writes a few bytes at a time, so use a large buffer to keep the number of writes down
+	private static final int OUTPUT_BUFFER_SIZE = 1 << 18;
+	private static final String THREADS_KEY = "threads";
+	private static final String RECURSIVE_KEY = "recursive";
+	private static final String BATCH_EXTENSION = "brl";
 	private final List<Argument> reqArgs;
 	private final List<OptionalArgument> optionalArgs;
 	//private final ShortFormResolver embosserSF;
 	private final ShortFormResolver tableSF;
+	private final SwitchMap switches;
 	private final CommandParser parser;
 	
 	public PEFParser() {
 		reqArgs = new ArrayList<Argument>();
-		reqArgs.add(new Argument("input", "path to the input file"));
-		reqArgs.add(new Argument("output", "path to the output file"));
+		reqArgs.add(new Argument("input", "path to the input file, folder or glob pattern"));
+		reqArgs.add(new Argument("output", "path to the output file, or output folder if the input is a folder or glob pattern"));
 		optionalArgs = new ArrayList<OptionalArgument>();
 		optionalArgs.add(new OptionalArgument(PEFConverterFacade.KEY_RANGE, "output a range of pages", "1-"));
-		TableCatalog tableCatalog = TableCatalog.newInstance();
+		TableCatalog tableCatalog = SharedServices.getTableCatalog();
 		Collection<String> idents = new ArrayList<>();
 		for (FactoryProperties p : tableCatalog.list()) { idents.add(p.getIdentifier()); }
 		tableSF = new ShortFormResolver(idents);
@@ -84,6 +103,10 @@ class PEFParser implements CommandDetails {
 		fallbackDefs.add(new Definition("remove", "Remove the 8-dot pattern (shortens row)"));
 		optionalArgs.add(new OptionalArgument(PEFConverterFacade.KEY_FALLBACK, "8-dot fallback method", fallbackDefs, ""));
 		optionalArgs.add(new OptionalArgument(PEFConverterFacade.KEY_REPLACEMENT, "replacement character, expressed as a hexadecimal number representing the unicode code point of the replacement character (in the range 2800-283F)", "2800"));
+		optionalArgs.add(new OptionalArgument(THREADS_KEY, "the number of files to convert in parallel when the input is a folder or glob pattern", "" + BatchRunner.defaultThreads()));
+		this.switches = new SwitchMap.Builder()
+				.addSwitch(new SwitchArgument('r', RECURSIVE_KEY, RECURSIVE_KEY, "true", "include files in subfolders when the input is a folder"))
+				.build();
 		this.parser = CommandParser.create(this);
 	}
 	
@@ -99,27 +122,28 @@ class PEFParser implements CommandDetails {
 			try {
 				Map<String, String> p = ui.parser.parse(args).toMap(ARG_PREFIX);
 				// remove required argument
-				File input = new File(""+p.remove(ARG_PREFIX+0));
+				String inputStr = ""+p.remove(ARG_PREFIX+0);
+				File input = new File(inputStr);
 				File output = new File(""+p.remove(ARG_PREFIX+1));
-				
-				// validate input
-				boolean ok = new ValidatorFacade().validate(input, System.out);
-				if (!ok) {
-					ExitCode.UNEXPECTED_RESOURCE_CONTENTS.exitSystem("Validation failed, exiting...");
+				String threadsStr = p.remove(THREADS_KEY);
+				boolean recursive = "true".equals(p.remove(RECURSIVE_KEY));
+				if (FileBatch.isBatch(inputStr)) {
+					try {
+						if (!ui.runBatch(inputStr, output, p, recursive, BatchRunner.parseThreads(threadsStr))) {
+							ExitCode.UNEXPECTED_RESOURCE_CONTENTS.exitSystem("Some files could not be converted.");
+						}
+					} catch (IllegalArgumentException e) {
+						ExitCode.ILLEGAL_ARGUMENT_VALUE.exitSystem(e.getMessage());
+					}
+					return;
 				}
-				
-				// expand short forms, if any
-				//ui.expandShortForm(p, PEFConverterFacade.KEY_EMBOSSER, ui.embosserSF);
 				try {
-					ui.tableSF.expandShortForm(p, PEFConverterFacade.KEY_TABLE);
+					if (!ui.convert(input, output, p, System.out)) {
+						ExitCode.UNEXPECTED_RESOURCE_CONTENTS.exitSystem("Validation failed, exiting...");
+					}
 				} catch (IllegalArgumentException e) {
 					ExitCode.ILLEGAL_ARGUMENT_VALUE.exitSystem(e.getMessage());
 				}
-				
-                try ( // run
-                        FileOutputStream os = new FileOutputStream(output)) {
-                    new PEFConverterFacade(EmbosserCatalog.newInstance()).parsePefFile(input, os, null, p);
-                }
 				System.out.println("Done!");
 			} catch (Exception e) {
 				e.printStackTrace();
@@ -127,6 +151,81 @@ class PEFParser implements CommandDetails {
 		}
 	}
 
+	/**
+	 * Converts a PEF-file into a text file. The input is validated before it is converted.
+	 * The throughput of the conversion, not including validation, is printed when done.
+	 * @param input the input file
+	 * @param output the output file
+	 * @param p the options, short forms are expanded
+	 * @param msg the print stream to send validation messages and the throughput to
+	 * @return returns true if the file was converted, false if the input is not valid
+	 * @throws IllegalArgumentException if the table option is not valid
+	 * @throws IOException if an i/o error occurs
+	 * @throws ParserConfigurationException if a parser cannot be created
+	 * @throws SAXException if the input cannot be parsed
+	 * @throws UnsupportedWidthException if the width is not supported
+	 * @throws EmbosserFactoryException if the embosser cannot be created
+	 */
+	boolean convert(File input, File output, Map<String, String> p, PrintStream msg) throws IOException, ParserConfigurationException, SAXException, UnsupportedWidthException, EmbosserFactoryException {
+		// validate input
+		if (!new ValidatorFacade().validate(input, msg)) {
+			return false;
+		}
+		// expand short forms, if any
+		//ui.expandShortForm(p, PEFConverterFacade.KEY_EMBOSSER, ui.embosserSF);
+		tableSF.expandShortForm(p, PEFConverterFacade.KEY_TABLE);
+		// run
+		long start = System.nanoTime();
+		write(input, output, p);
+		printThroughput(input.length(), System.nanoTime() - start, msg);
+		return true;
+	}
+
+	/**
+	 * Converts the PEF-files in a folder or matching a glob pattern into text files
+	 * in the output folder. The files are converted in parallel, and a file that is
+	 * not valid is reported as failed.
+	 * @param input the input folder or glob pattern
+	 * @param output the output folder
+	 * @param p the options, short forms are expanded
+	 * @param recursive true if files in subfolders of an input folder should be included
+	 * @param threads the number of files to convert in parallel
+	 * @return true if all files were converted, false otherwise
+	 * @throws IllegalArgumentException if the table option is not valid
+	 * @throws IOException if the input cannot be listed
+	 * @throws InterruptedException if interrupted while running
+	 */
+	boolean runBatch(String input, File output, Map<String, String> p, boolean recursive, int threads) throws IOException, InterruptedException {
+		tableSF.expandShortForm(p, PEFConverterFacade.KEY_TABLE);
+		FileBatch batch = new FileBatch(input, output, BATCH_EXTENSION, recursive, threads);
+		return batch.run((in, out)->{
+			if (!new ValidatorFacade().validate(in)) {
+				throw new IOException("Validation failed for " + in);
+			}
+			// each file gets its own copy of the options, in case they are modified
+			write(in, out, new HashMap<>(p));
+		}, System.out);
+	}
+
+	private static void write(File input, File output, Map<String, String> p) throws IOException, ParserConfigurationException, SAXException, UnsupportedWidthException, EmbosserFactoryException {
+		try (OutputStream os = new BufferedOutputStream(Channels.newOutputStream(FileChannel.open(output.toPath(),
+				StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)), OUTPUT_BUFFER_SIZE)) {
+			new PEFConverterFacade(SharedServices.getEmbosserCatalog()).parsePefFile(input, os, null, p);
+		}
+	}
+
+	/**
+	 * Prints the number of input bytes processed per second.
+	 * @param bytes the number of bytes
+	 * @param nanos the elapsed time, in nanoseconds
+	 * @param ps the print stream
+	 */
+	static void printThroughput(long bytes, long nanos, PrintStream ps) {
+		double mb = bytes / (1024d * 1024d);
+		double s = Math.max(1, nanos) / 1e9;
+		ps.println(String.format("Read %.1f MB in %.2f s (%.1f MB/s)", mb, s, mb / s));
+	}
+
 	@Override
 	public String getName() {
 		return DotifyCLI.PEF2TEXT;
@@ -146,6 +245,11 @@ class PEFParser implements CommandDetails {
 	public List<OptionalArgument> getOptionalArguments() {
 		return optionalArgs;
 	}
+
+	@Override
+	public SwitchMap getSwitches() {
+		return switches;
+	}
 	
 	
 	/**
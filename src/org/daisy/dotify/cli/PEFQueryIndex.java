@@ -0,0 +1,266 @@
+package org.daisy.dotify.cli;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.daisy.dotify.cli.pefinfo.PEFSummary;
+
+/**
+ * Provides an inverted index of PEF summaries with ranked queries.
+ *
+ * <p>A query is a list of clauses separated by white space, all of which must match.
+ * A clause can be limited to a metadata field, for example <code>title:braille</code>.
+ * A clause matches words starting with the clause, with exact matches ranking higher.
+ * A trailing <code>*</code> is accepted, but not required. A clause ending with
+ * <code>~</code> matches words that differ from the clause by one or two
+ * characters instead. Results are ranked by how rare the matching words are and how often they
+ * occur in each book. Matches in the title rank higher than matches in other fields.</p>
+ *
+ * <p>Each term has a posting list of document numbers and term frequencies, stored in
+ * primitive arrays. Documents are numbered in the order they are added, so posting
+ * lists are always sorted. Removed documents are marked as deleted and skipped when
+ * searching. A document that changes is removed and added again.</p>
+ */
+class PEFQueryIndex {
+	private static final String ANY_FIELD = "";
+	private static final String TITLE_FIELD = "title";
+	private static final char FIELD_SEPARATOR = ':';
+	private static final float TITLE_BOOST = 2f;
+	private static final float PREFIX_WEIGHT = 0.5f;
+	private static final float FUZZY_WEIGHT = 0.3f;
+	private static final Pattern CLAUSE = Pattern.compile("(?:(\\p{Alpha}+):)?(.+?)([*~]?)");
+	private final List<PEFSummary> docs;
+	private final TreeMap<String, Postings> terms;
+	private final BitSet deleted;
+
+	private static class Postings {
+		private int[] docs = new int[4];
+		private int[] freqs = new int[4];
+		private int size = 0;
+
+		private void add(int doc) {
+			if (size>0 && docs[size-1]==doc) {
+				freqs[size-1]++;
+				return;
+			}
+			if (size==docs.length) {
+				docs = Arrays.copyOf(docs, size * 2);
+				freqs = Arrays.copyOf(freqs, size * 2);
+			}
+			docs[size] = doc;
+			freqs[size] = 1;
+			size++;
+		}
+	}
+
+	private enum Type {
+		PREFIX,
+		FUZZY
+	}
+
+	/**
+	 * Creates a new empty index.
+	 */
+	PEFQueryIndex() {
+		this.docs = new ArrayList<>();
+		this.terms = new TreeMap<>();
+		this.deleted = new BitSet();
+	}
+
+	/**
+	 * Adds a document to the index.
+	 * @param summary the summary
+	 * @param tokens the words of each metadata field of the summary, in lower case
+	 * @return the document number
+	 */
+	int add(PEFSummary summary, Map<String, String[]> tokens) {
+		int doc = docs.size();
+		docs.add(summary);
+		for (Map.Entry<String, String[]> e : tokens.entrySet()) {
+			for (String t : e.getValue()) {
+				posting(e.getKey(), t).add(doc);
+				posting(ANY_FIELD, t).add(doc);
+			}
+		}
+		return doc;
+	}
+
+	private Postings posting(String field, String token) {
+		return terms.computeIfAbsent(field + FIELD_SEPARATOR + token, k->new Postings());
+	}
+
+	/**
+	 * Removes a document from the index.
+	 * @param doc the document number
+	 */
+	void remove(int doc) {
+		deleted.set(doc);
+	}
+
+	/**
+	 * Gets the number of documents in the index.
+	 * @return the number of documents
+	 */
+	int size() {
+		return docs.size() - deleted.cardinality();
+	}
+
+	/**
+	 * Gets the number of removed documents that still take up space in the index.
+	 * @return the number of removed documents
+	 */
+	int getDeleted() {
+		return deleted.cardinality();
+	}
+
+	/**
+	 * Finds the documents matching a query.
+	 * @param query the query
+	 * @return the matching documents, best match first
+	 */
+	List<PEFSummary> search(String query) {
+		int n = docs.size();
+		float[] total = new float[n];
+		int[] matched = new int[n];
+		float[] scores = new float[n];
+		int clauses = 0;
+		for (String c : query.trim().split("\\s+")) {
+			Matcher m = CLAUSE.matcher(c);
+			if (c.isEmpty() || !m.matches()) {
+				continue;
+			}
+			String field = m.group(1)==null ? ANY_FIELD : m.group(1).toLowerCase(Locale.ROOT);
+			Type type = "~".equals(m.group(3)) ? Type.FUZZY : Type.PREFIX;
+			for (String word : PEFIndex.split(m.group(2))) {
+				Arrays.fill(scores, 0);
+				score(field, word, type, 1f, scores);
+				if (ANY_FIELD.equals(field)) {
+					score(TITLE_FIELD, word, type, TITLE_BOOST, scores);
+				}
+				for (int i = 0; i<n; i++) {
+					if (scores[i]>0) {
+						total[i] += scores[i];
+						matched[i]++;
+					}
+				}
+				clauses++;
+			}
+		}
+		List<Integer> hits = new ArrayList<>();
+		if (clauses==0) {
+			return new ArrayList<>();
+		}
+		for (int i = 0; i<n; i++) {
+			if (matched[i]==clauses && !deleted.get(i)) {
+				hits.add(i);
+			}
+		}
+		hits.sort(Comparator.<Integer>comparingDouble(i->-total[i])
+				.thenComparing(i->docs.get(i).getURI().toString()));
+		List<PEFSummary> ret = new ArrayList<>(hits.size());
+		for (int i : hits) {
+			ret.add(docs.get(i));
+		}
+		return ret;
+	}
+
+	/**
+	 * Scores the documents matching a word in a field. For each document,
+	 * the best matching term is used.
+	 */
+	private void score(String field, String word, Type type, float boost, float[] scores) {
+		String key = field + FIELD_SEPARATOR + word;
+		switch (type) {
+			case PREFIX:
+				for (Map.Entry<String, Postings> e : terms.subMap(key, key + Character.MAX_VALUE).entrySet()) {
+					score(e.getValue(), boost * (e.getKey().equals(key) ? 1f : PREFIX_WEIGHT), scores);
+				}
+				break;
+			case FUZZY: {
+				int max = word.length()>5 ? 2 : 1;
+				String prefix = field + FIELD_SEPARATOR;
+				SortedMap<String, Postings> fieldTerms = terms.subMap(prefix, field + (char)(FIELD_SEPARATOR + 1));
+				// the rows of the distance matrix, reused for all terms
+				int[][] rows = new int[2][word.length() + max + 1];
+				for (Map.Entry<String, Postings> e : fieldTerms.entrySet()) {
+					// terms whose length differs by more than max are too far away, skip them before computing the distance
+					if (Math.abs(e.getKey().length() - prefix.length() - word.length())>max) {
+						continue;
+					}
+					String term = e.getKey().substring(prefix.length());
+					int d = distance(word, term, max, rows);
+					if (d<=max) {
+						score(e.getValue(), boost * (d==0 ? 1f : FUZZY_WEIGHT), scores);
+					}
+				}
+				break;
+			}
+			default:
+				throw new RuntimeException("Coding error.");
+		}
+	}
+
+	private void score(Postings p, float weight, float[] scores) {
+		if (p==null) {
+			return;
+		}
+		// deleted documents are included in the document frequency, which is close enough
+		float idf = (float)Math.log(1 + (double)docs.size() / p.size);
+		for (int i = 0; i<p.size; i++) {
+			float s = weight * idf * (1 + (float)Math.log(p.freqs[i]));
+			int doc = p.docs[i];
+			if (s>scores[doc]) {
+				scores[doc] = s;
+			}
+		}
+	}
+
+	/**
+	 * Computes the edit distance between two strings, giving up when it exceeds max.
+	 * @return the distance, or a value greater than max
+	 */
+	static int distance(String a, String b, int max) {
+		return distance(a, b, max, new int[2][b.length() + 1]);
+	}
+
+	/**
+	 * Computes the edit distance between two strings, giving up when it exceeds max.
+	 * @param rows two arrays with room for at least one more value than the length of b
+	 * @return the distance, or a value greater than max
+	 */
+	private static int distance(String a, String b, int max, int[][] rows) {
+		if (Math.abs(a.length() - b.length())>max) {
+			return max + 1;
+		}
+		int[] prev = rows[0];
+		int[] cur = rows[1];
+		for (int j = 0; j<=b.length(); j++) {
+			prev[j] = j;
+		}
+		for (int i = 1; i<=a.length(); i++) {
+			cur[0] = i;
+			int rowMin = cur[0];
+			for (int j = 1; j<=b.length(); j++) {
+				int cost = a.charAt(i-1)==b.charAt(j-1) ? 0 : 1;
+				cur[j] = Math.min(Math.min(cur[j-1] + 1, prev[j] + 1), prev[j-1] + cost);
+				rowMin = Math.min(rowMin, cur[j]);
+			}
+			if (rowMin>max) {
+				return max + 1;
+			}
+			int[] t = prev;
+			prev = cur;
+			cur = t;
+		}
+		return prev[b.length()];
+	}
+}
@@ -0,0 +1,174 @@
+package org.daisy.dotify.cli;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.daisy.dotify.cli.pefinfo.PEFMetadataReader;
+
+/**
+ * Provides a parallel scanner that adds new and modified PEF-files to an index.
+ * Reading a file is mostly waiting for I/O, especially on network drives, so several
+ * files are read at the same time. The scan can be cancelled from another thread,
+ * in which case the files read so far are kept in the index.
+ */
+class PEFScanner {
+	private static final Logger logger = Logger.getLogger(PEFScanner.class.getCanonicalName());
+	private static final long PROGRESS_INTERVAL = 1000;
+	private final PEFIndex index;
+	private final int threads;
+	private final ThreadLocal<PEFMetadataReader> readers;
+	private final AtomicInteger scanned;
+	private volatile BatchRunner runner;
+	private volatile boolean cancelled;
+
+	/**
+	 * Creates a new scanner.
+	 * @param index the index to add files to
+	 * @param threads the number of files to read at the same time
+	 */
+	PEFScanner(PEFIndex index, int threads) {
+		this.index = index;
+		this.threads = threads;
+		// XMLInputFactory is not guaranteed to be thread safe
+		this.readers = ThreadLocal.withInitial(PEFMetadataReader::new);
+		this.scanned = new AtomicInteger();
+		this.runner = null;
+		this.cancelled = false;
+	}
+
+	/**
+	 * Adds the files that are not up to date in the index. Progress is reported
+	 * to the supplied print stream, if any.
+	 * @param files the files to scan
+	 * @param progress the print stream to report progress to, or null
+	 * @return the number of files that were read
+	 * @throws InterruptedException if interrupted while scanning
+	 */
+	int scan(Collection<File> files, PrintStream progress) throws InterruptedException {
+		BatchRunner r = new BatchRunner(threads);
+		runner = r;
+		scanned.set(0);
+		long start = System.currentTimeMillis();
+		ScheduledExecutorService reporter = null;
+		int submitted = 0;
+		try {
+			for (File f : files) {
+				if (cancelled) {
+					break;
+				}
+				if (index.isUpToDate(f)) {
+					continue;
+				}
+				if (submitted==0 && progress!=null) {
+					progress.println("Scanning new or modified books...");
+					reporter = startReporter(progress, start);
+				}
+				submitted++;
+				try {
+					r.submit(f.getPath(), ()->read(f));
+				} catch (RejectedExecutionException e) {
+					// cancelled
+					break;
+				}
+			}
+		} finally {
+			r.awaitCompletion();
+			if (reporter!=null) {
+				reporter.shutdownNow();
+				printProgress(progress, start);
+				progress.println();
+			}
+		}
+		if (cancelled && progress!=null) {
+			progress.println("Scan cancelled.");
+		}
+		return scanned.get();
+	}
+
+	private ScheduledExecutorService startReporter(PrintStream progress, long start) {
+		ScheduledExecutorService ret = Executors.newSingleThreadScheduledExecutor(r->{
+			Thread t = new Thread(r, "scan-progress");
+			t.setDaemon(true);
+			return t;
+		});
+		ret.scheduleAtFixedRate(()->printProgress(progress, start), PROGRESS_INTERVAL, PROGRESS_INTERVAL, TimeUnit.MILLISECONDS);
+		return ret;
+	}
+
+	private void printProgress(PrintStream progress, long start) {
+		long elapsed = Math.max(1, System.currentTimeMillis() - start);
+		int n = scanned.get();
+		progress.print(String.format("\rRead %d file(s), %.1f files/s   ", n, n * 1000d / elapsed));
+		progress.flush();
+	}
+
+	private boolean read(File f) {
+		// read these first, so that a modification while loading is detected in the next scan
+		long size = f.length();
+		long lastModified = f.lastModified();
+		try {
+			index.put(f, size, lastModified, readers.get().read(f));
+		} catch (IOException e) {
+			logger.log(Level.FINE, "Failed to read " + f, e);
+			// recorded, so that the file isn't read again until it changes
+			index.putFailed(f, size, lastModified);
+		} finally {
+			scanned.incrementAndGet();
+		}
+		return true;
+	}
+
+	/**
+	 * Updates the index with changes reported by a file watcher. Files that
+	 * have been created or modified are read, and files that have been deleted
+	 * are removed from the index.
+	 * @param changed the changed files
+	 * @return the number of entries that were added, modified or removed
+	 */
+	int update(Collection<Path> changed) {
+		int ret = 0;
+		for (Path p : changed) {
+			File f = p.toFile();
+			if (f.isFile()) {
+				if (!index.isUpToDate(f)) {
+					read(f);
+					ret++;
+				}
+			} else if (!f.exists()) {
+				index.remove(f);
+				ret++;
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Cancels a running scan. Files that are being read when this method
+	 * is called may or may not be added to the index.
+	 */
+	void cancel() {
+		cancelled = true;
+		BatchRunner r = runner;
+		if (r!=null) {
+			r.cancel();
+		}
+	}
+
+	/**
+	 * Returns true if the scan has been cancelled.
+	 * @return true if cancelled, false otherwise
+	 */
+	boolean isCancelled() {
+		return cancelled;
+	}
+}
@@ -0,0 +1,264 @@
+package org.daisy.dotify.cli;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+
+import org.daisy.streamline.api.validity.Validator;
+
+/**
+ * Provides a streaming merger for PEF-files. The inputs are validated in parallel
+ * before anything is written. The head of the first input, with a new identifier,
+ * is then written to the output followed by the volumes of each input, in order.
+ * Each input is copied event by event, so memory use does not depend on the number
+ * or size of the inputs.
+ */
+class PEFVolumeMerger {
+	private static final QName IDENTIFIER = new QName(PEFXml.DC_NS, "identifier");
+	private static final int BUFFER_SIZE = 65536;
+	private static final Pattern CHUNK = Pattern.compile("\\d+|\\D+");
+	private final int threads;
+	private final List<File> invalid;
+
+	/**
+	 * Defines the order of the input files.
+	 */
+	enum SortType {
+		/**
+		 * Sorts file names character by character
+		 */
+		STANDARD,
+		/**
+		 * Sorts groups of digits in file names as numbers
+		 */
+		NUMERAL_GROUPING;
+
+		Comparator<File> comparator() {
+			switch (this) {
+				case STANDARD:
+					return Comparator.comparing(File::getName);
+				case NUMERAL_GROUPING:
+					return (a, b)->compareNumeralGrouping(a.getName(), b.getName());
+				default:
+					throw new RuntimeException("Coding error.");
+			}
+		}
+	}
+
+	/**
+	 * Creates a new merger.
+	 * @param threads the number of inputs to validate in parallel
+	 */
+	PEFVolumeMerger(int threads) {
+		this.threads = threads;
+		this.invalid = Collections.synchronizedList(new ArrayList<>());
+	}
+
+	/**
+	 * Merges the PEF-files in a folder into one file. Only files with the
+	 * extension .pef are merged, and the output file is never an input.
+	 * @param inputDir the input folder
+	 * @param output the output file
+	 * @param identifier the identifier of the merged publication
+	 * @param sort the order of the input files
+	 * @return true if the files were merged, false if any of the inputs were invalid
+	 * @throws IOException if an input cannot be read or if the output cannot be written
+	 * @throws InterruptedException if interrupted while waiting for validation to finish
+	 */
+	boolean merge(File inputDir, File output, String identifier, SortType sort) throws IOException, InterruptedException {
+		File out = output.getAbsoluteFile();
+		// the output may be in the input folder, for example when merging again
+		File[] files = inputDir.listFiles(f->f.isFile() && f.getName().toLowerCase(Locale.ROOT).endsWith(".pef")
+				&& !f.getAbsoluteFile().equals(out));
+		if (files==null || files.length==0) {
+			throw new IOException("No PEF-files found in " + inputDir);
+		}
+		Arrays.sort(files, sort.comparator());
+		invalid.clear();
+		BatchRunner validation = new BatchRunner(threads);
+		try {
+			for (File f : files) {
+				validation.submit(f.getName(), ()->validate(f));
+			}
+		} finally {
+			validation.awaitCompletion();
+		}
+		for (String name : validation.getFailures()) {
+			invalid.add(new File(inputDir, name));
+		}
+		if (!invalid.isEmpty()) {
+			return false;
+		}
+		boolean ok = false;
+		try (OutputStream os = new BufferedOutputStream(Channels.newOutputStream(FileChannel.open(output.toPath(),
+				StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)), BUFFER_SIZE)) {
+			write(files, os, identifier);
+			ok = true;
+		} finally {
+			if (!ok) {
+				Files.deleteIfExists(output.toPath());
+			}
+		}
+		return true;
+	}
+
+	private static void write(File[] files, OutputStream os, String identifier) throws IOException {
+		XMLInputFactory inFactory = PEFXml.newInputFactory();
+		XMLOutputFactory outFactory = PEFXml.newOutputFactory();
+		XMLEventFactory eventFactory = XMLEventFactory.newInstance();
+		try {
+			XMLEventWriter writer = outFactory.createXMLEventWriter(os, "UTF-8");
+			// the elements that are open at the start of the first volume
+			Deque<StartElement> open = new ArrayDeque<>();
+			for (int i = 0; i<files.length; i++) {
+				try (InputStream is = new BufferedInputStream(new FileInputStream(files[i]))) {
+					XMLEventReader reader = inFactory.createXMLEventReader(is);
+					if (i==0) {
+						writeHead(reader, writer, eventFactory, open, identifier);
+					}
+					while (reader.hasNext()) {
+						XMLEvent event = reader.nextEvent();
+						if (event.isStartElement() && PEFXml.VOLUME.equals(event.asStartElement().getName())) {
+							copyElement(event, reader, writer);
+						}
+					}
+					reader.close();
+				}
+			}
+			for (StartElement s : open) {
+				writer.add(eventFactory.createEndElement(s.getName(), null));
+			}
+			writer.add(eventFactory.createEndDocument());
+			writer.close();
+		} catch (XMLStreamException e) {
+			throw new IOException("Failed to merge files", e);
+		}
+	}
+
+	/**
+	 * Copies the events before the first volume, replacing the identifier. If
+	 * there is no identifier, one is added at the end of the metadata.
+	 */
+	private static void writeHead(XMLEventReader reader, XMLEventWriter writer, XMLEventFactory eventFactory, Deque<StartElement> open, String identifier) throws XMLStreamException {
+		boolean hasIdentifier = false;
+		while (reader.hasNext()) {
+			XMLEvent event = reader.peek();
+			if (event.isStartElement() && PEFXml.VOLUME.equals(event.asStartElement().getName())) {
+				return;
+			}
+			event = reader.nextEvent();
+			if (event.isStartDocument()) {
+				// the output is always UTF-8
+				writer.add(eventFactory.createStartDocument("UTF-8", "1.0"));
+			} else if (event.isStartElement() && IDENTIFIER.equals(event.asStartElement().getName())) {
+				hasIdentifier = true;
+				writer.add(event);
+				reader.getElementText();
+				writer.add(eventFactory.createCharacters(identifier));
+				writer.add(eventFactory.createEndElement(IDENTIFIER, null));
+			} else {
+				if (event.isStartElement()) {
+					open.push(event.asStartElement());
+				} else if (event.isEndElement()) {
+					if (!hasIdentifier && PEFXml.META.equals(event.asEndElement().getName())) {
+						writer.add(eventFactory.createStartElement("dc", PEFXml.DC_NS, IDENTIFIER.getLocalPart()));
+						writer.add(eventFactory.createCharacters(identifier));
+						writer.add(eventFactory.createEndElement(IDENTIFIER, null));
+					}
+					open.pop();
+				}
+				writer.add(event);
+			}
+		}
+	}
+
+	private static void copyElement(XMLEvent start, XMLEventReader reader, XMLEventWriter writer) throws XMLStreamException {
+		writer.add(start);
+		int depth = 1;
+		while (depth>0 && reader.hasNext()) {
+			XMLEvent e = reader.nextEvent();
+			if (e.isStartElement()) {
+				depth++;
+			} else if (e.isEndElement()) {
+				depth--;
+			}
+			writer.add(e);
+		}
+	}
+
+	private boolean validate(File f) throws IOException {
+		Validator validator = ValidatorFacade.getValidator(ValidatorFacade.PEF_MEDIA_TYPE);
+		if (validator==null) {
+			throw new IOException("Failed to locate a validator");
+		}
+		if (!validator.validate(f.toURI().toURL()).isValid()) {
+			invalid.add(f);
+		}
+		return true;
+	}
+
+	/**
+	 * Gets the input files that failed validation in the last merge.
+	 * @return the invalid files
+	 */
+	List<File> getInvalid() {
+		synchronized (invalid) {
+			return new ArrayList<>(invalid);
+		}
+	}
+
+	/**
+	 * Compares two strings, treating groups of digits as numbers.
+	 */
+	static int compareNumeralGrouping(String a, String b) {
+		Matcher ma = CHUNK.matcher(a);
+		Matcher mb = CHUNK.matcher(b);
+		while (ma.find()) {
+			if (!mb.find()) {
+				return 1;
+			}
+			String ca = ma.group();
+			String cb = mb.group();
+			int ret;
+			if (Character.isDigit(ca.charAt(0)) && Character.isDigit(cb.charAt(0))) {
+				String na = ca.replaceFirst("^0+(?=.)", "");
+				String nb = cb.replaceFirst("^0+(?=.)", "");
+				ret = na.length()!=nb.length() ? Integer.compare(na.length(), nb.length()) : na.compareTo(nb);
+			} else {
+				ret = ca.compareTo(cb);
+			}
+			if (ret!=0) {
+				return ret;
+			}
+		}
+		return mb.find() ? -1 : a.compareTo(b);
+	}
+}
@@ -0,0 +1,192 @@
+package org.daisy.dotify.cli;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+
+import org.daisy.streamline.api.validity.Validator;
+
+/**
+ * Provides a streaming splitter for PEF-files. Each volume is written to a separate
+ * file as soon as it has been read, so only the head of the input is kept in memory.
+ * Each volume file contains the head of the input followed by the volume.
+ *
+ * <p>The input and the volume files are validated in parallel while the input is
+ * being split. If the input is not valid, the volume files are removed.</p>
+ */
+class PEFVolumeSplitter {
+	/**
+	 * Defines the file name prefix of volume files
+	 */
+	static final String PREFIX = "volume-";
+	/**
+	 * Defines the file name postfix of volume files
+	 */
+	static final String POSTFIX = ".pef";
+	private final int threads;
+	private final List<File> invalid;
+	private volatile boolean inputValid;
+
+	/**
+	 * Creates a new splitter.
+	 * @param threads the number of volumes to validate in parallel
+	 */
+	PEFVolumeSplitter(int threads) {
+		this.threads = threads;
+		this.invalid = Collections.synchronizedList(new ArrayList<>());
+	}
+
+	/**
+	 * Splits a PEF-file into one file per volume.
+	 * @param input the input file
+	 * @param outputDir the output folder
+	 * @return the volume files, in order
+	 * @throws IOException if the input cannot be read, isn't valid, doesn't contain any volumes or if an output file cannot be written
+	 * @throws InterruptedException if interrupted while waiting for validation to finish
+	 */
+	List<File> split(File input, File outputDir) throws IOException, InterruptedException {
+		XMLInputFactory inFactory = PEFXml.newInputFactory();
+		XMLOutputFactory outFactory = PEFXml.newOutputFactory();
+		XMLEventFactory eventFactory = XMLEventFactory.newInstance();
+		List<File> ret = new ArrayList<>();
+		invalid.clear();
+		inputValid = false;
+		// at least two, so that the input and the volumes can be validated at the same time
+		BatchRunner validation = new BatchRunner(Math.max(2, threads));
+		boolean ok = false;
+		try {
+			validation.submit(input.getPath(), ()->{
+				inputValid = getValidator().validate(input.toURI().toURL()).isValid();
+				return true;
+			});
+			split(input, outputDir, validation, ret, inFactory, outFactory, eventFactory);
+			if (!inputValid) {
+				throw new IOException("The input is not a valid PEF-file: " + input);
+			}
+			ok = true;
+		} finally {
+			// no partial output is left behind
+			if (!ok) {
+				for (File f : ret) {
+					f.delete();
+				}
+			}
+		}
+		for (String name : validation.getFailures()) {
+			invalid.add(new File(outputDir, name));
+		}
+		return ret;
+	}
+
+	private void split(File input, File outputDir, BatchRunner validation, List<File> ret,
+			XMLInputFactory inFactory, XMLOutputFactory outFactory, XMLEventFactory eventFactory) throws IOException, InterruptedException {
+		try (InputStream is = new BufferedInputStream(new FileInputStream(input))) {
+			XMLEventReader reader = inFactory.createXMLEventReader(is);
+			// everything before the first volume, repeated in each volume file
+			List<XMLEvent> header = new ArrayList<>();
+			// the elements that are open at the start of a volume, closed at the end of each volume file
+			Deque<StartElement> open = new ArrayDeque<>();
+			boolean inBody = false;
+			while (reader.hasNext()) {
+				XMLEvent event = reader.nextEvent();
+				if (event.isStartElement() && PEFXml.VOLUME.equals(event.asStartElement().getName())) {
+					inBody = true;
+					File f = new File(outputDir, PREFIX + (ret.size() + 1) + POSTFIX);
+					// added first, so that a partially written file is removed as well
+					ret.add(f);
+					writeVolume(reader, event, header, open, f, outFactory, eventFactory);
+					validation.submit(f.getName(), ()->validate(f));
+				} else if (!inBody) {
+					if (event.isStartDocument()) {
+						// the output is always UTF-8
+						event = eventFactory.createStartDocument("UTF-8", "1.0");
+					} else if (event.isStartElement()) {
+						open.push(event.asStartElement());
+					} else if (event.isEndElement()) {
+						open.pop();
+					}
+					header.add(event);
+				}
+			}
+			reader.close();
+			if (ret.isEmpty()) {
+				throw new IOException("No volumes found in " + input);
+			}
+		} catch (XMLStreamException e) {
+			throw new IOException("Failed to split " + input, e);
+		} finally {
+			validation.awaitCompletion();
+		}
+	}
+
+	private static void writeVolume(XMLEventReader reader, XMLEvent start, List<XMLEvent> header, Deque<StartElement> open,
+			File f, XMLOutputFactory outFactory, XMLEventFactory eventFactory) throws IOException, XMLStreamException {
+		try (OutputStream os = new BufferedOutputStream(new FileOutputStream(f), 65536)) {
+			XMLEventWriter writer = outFactory.createXMLEventWriter(os, "UTF-8");
+			for (XMLEvent e : header) {
+				writer.add(e);
+			}
+			writer.add(start);
+			int depth = 1;
+			while (depth>0 && reader.hasNext()) {
+				XMLEvent e = reader.nextEvent();
+				if (e.isStartElement()) {
+					depth++;
+				} else if (e.isEndElement()) {
+					depth--;
+				}
+				writer.add(e);
+			}
+			// close the elements that were open when the volume started (body and pef)
+			for (StartElement s : open) {
+				writer.add(eventFactory.createEndElement(s.getName(), null));
+			}
+			writer.add(eventFactory.createEndDocument());
+			writer.close();
+		}
+	}
+
+	private static Validator getValidator() throws IOException {
+		Validator ret = ValidatorFacade.getValidator(ValidatorFacade.PEF_MEDIA_TYPE);
+		if (ret==null) {
+			throw new IOException("Failed to locate a validator");
+		}
+		return ret;
+	}
+
+	private boolean validate(File f) throws IOException {
+		if (!getValidator().validate(f.toURI().toURL()).isValid()) {
+			invalid.add(f);
+		}
+		return true;
+	}
+
+	/**
+	 * Gets the volume files that failed validation in the last split.
+	 * @return the invalid files
+	 */
+	List<File> getInvalid() {
+		synchronized (invalid) {
+			return new ArrayList<>(invalid);
+		}
+	}
+}
@@ -0,0 +1,46 @@
+package org.daisy.dotify.cli;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+
+/**
+ * Provides the names and StAX factories shared by the PEF splitter and merger.
+ */
+class PEFXml {
+	/**
+	 * Defines the PEF namespace
+	 */
+	static final String PEF_NS = "http://www.daisy.org/ns/2008/pef";
+	/**
+	 * Defines the Dublin Core namespace
+	 */
+	static final String DC_NS = "http://purl.org/dc/elements/1.1/";
+	static final QName VOLUME = new QName(PEF_NS, "volume");
+	static final QName META = new QName(PEF_NS, "meta");
+
+	private PEFXml() {}
+
+	/**
+	 * Creates a namespace aware input factory that doesn't resolve DTDs or external entities.
+	 * @return a new input factory
+	 */
+	static XMLInputFactory newInputFactory() {
+		XMLInputFactory ret = XMLInputFactory.newInstance();
+		ret.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+		ret.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		ret.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		return ret;
+	}
+
+	/**
+	 * Creates an output factory that adds namespace declarations where needed.
+	 * @return a new output factory
+	 */
+	static XMLOutputFactory newOutputFactory() {
+		XMLOutputFactory ret = XMLOutputFactory.newInstance();
+		// volumes are written without their ancestors, so namespace declarations may be needed
+		ret.setProperty(XMLOutputFactory.IS_REPAIRING_NAMESPACES, true);
+		return ret;
+	}
+}
@@ -0,0 +1,194 @@
+package org.daisy.dotify.cli;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.print.PrintException;
+
+import org.daisy.dotify.api.embosser.Device;
+
+/**
+ * Provides a device that transmits files to another device on a separate thread,
+ * so that the next file can be rendered while the previous one is being transmitted.
+ * Files are transmitted in the order they are received. A bounded number of files
+ * may be waiting, after which {@link #transmit(File)} blocks.
+ *
+ * <p>When all files have been received, {@link #close()} waits for the transmission
+ * to finish. If more than one copy has been requested, the files are then transmitted
+ * again, in the same order, for each additional copy, so that each file is only
+ * rendered once.</p>
+ *
+ * <p>If rendering fails, {@link #abort()} should be called before {@link #close()}.
+ * It discards the files that are waiting and skips the additional copies.</p>
+ *
+ * <p>If the device fails, the remaining files are discarded and the failure is
+ * thrown by the next call to {@link #transmit(File)} or by {@link #close()}.</p>
+ */
+class QueuedDevice implements Device, AutoCloseable {
+	private static final Logger logger = Logger.getLogger(QueuedDevice.class.getCanonicalName());
+	// marks the end of the queue
+	private static final File END = new File("");
+	// how often a blocked caller checks that the files are still being consumed
+	private static final long POLL_INTERVAL_MS = 100;
+	private final Device device;
+	private final int copies;
+	private final BlockingQueue<File> queue;
+	private final List<File> transmitted;
+	private final Thread consumer;
+	private volatile PrintException failure;
+	private volatile boolean aborted;
+	private boolean ended;
+
+	/**
+	 * Creates a new queued device.
+	 * @param device the device to transmit to
+	 * @param capacity the maximum number of files waiting to be transmitted
+	 * @param copies the number of times to transmit each file
+	 */
+	QueuedDevice(Device device, int capacity, int copies) {
+		this.device = device;
+		this.copies = copies;
+		this.queue = new ArrayBlockingQueue<>(capacity);
+		this.transmitted = new ArrayList<>();
+		this.failure = null;
+		this.aborted = false;
+		this.ended = false;
+		this.consumer = new Thread(this::consume, "emboss-transmit");
+		consumer.setDaemon(true);
+		consumer.start();
+	}
+
+	@Override
+	public void transmit(File file) throws PrintException {
+		if (aborted) {
+			throw new PrintException("The transmission has been aborted");
+		}
+		checkFailure();
+		File copy;
+		try {
+			// the writer may delete its file as soon as this method returns
+			copy = File.createTempFile("emboss", ".tmp");
+			copy.deleteOnExit();
+			Files.copy(file.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			throw new PrintException(e);
+		}
+		try {
+			enqueue(copy);
+		} catch (PrintException e) {
+			copy.delete();
+			throw e;
+		}
+		// report a failure as soon as possible
+		checkFailure();
+	}
+
+	/**
+	 * Adds a file to the queue, without blocking forever if the files are no longer consumed.
+	 */
+	private void enqueue(File f) throws PrintException {
+		try {
+			while (!queue.offer(f, POLL_INTERVAL_MS, TimeUnit.MILLISECONDS)) {
+				if (!consumer.isAlive()) {
+					checkFailure();
+					throw new PrintException("The transmission has stopped");
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new PrintException(e);
+		}
+	}
+
+	private void consume() {
+		try {
+			File f;
+			// keep draining after a failure, so that the producer is never blocked
+			while ((f = queue.take())!=END) {
+				if (failure==null && !aborted) {
+					try {
+						device.transmit(f);
+					} catch (PrintException e) {
+						failure = e;
+					} catch (RuntimeException e) {
+						failure = new PrintException(e);
+					}
+				}
+				transmitted.add(f);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void checkFailure() throws PrintException {
+		if (failure!=null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * Discards the files that are waiting to be transmitted. The current transmission,
+	 * if any, is not interrupted. No additional copies are transmitted, and no more
+	 * files are accepted. Does not block, {@link #close()} must still be called to wait
+	 * for the current transmission and to remove the temporary files.
+	 */
+	void abort() {
+		aborted = true;
+		List<File> discarded = new ArrayList<>();
+		queue.drainTo(discarded);
+		delete(discarded);
+		// there is room, since the queue was just drained and only this thread adds to it
+		ended = queue.offer(END);
+	}
+
+	private static void delete(List<File> files) {
+		for (File f : files) {
+			if (!f.delete()) {
+				logger.log(Level.FINE, "Failed to delete " + f);
+			}
+		}
+	}
+
+	/**
+	 * Waits for all files to be transmitted, transmits the additional copies and
+	 * removes the temporary files. After {@link #abort()}, only waits for the current
+	 * transmission and removes the temporary files.
+	 * @throws PrintException if a file could not be transmitted
+	 */
+	@Override
+	public void close() throws PrintException {
+		try {
+			if (!ended) {
+				enqueue(END);
+				ended = true;
+			}
+			consumer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new PrintException(e);
+		}
+		try {
+			if (aborted) {
+				return;
+			}
+			checkFailure();
+			for (int i = 1; i<copies; i++) {
+				for (File f : transmitted) {
+					device.transmit(f);
+				}
+			}
+		} finally {
+			delete(transmitted);
+		}
+	}
+}
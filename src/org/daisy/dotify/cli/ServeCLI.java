@@ -0,0 +1,373 @@
+package org.daisy.dotify.cli;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import java.util.logging.SimpleFormatter;
+
+import org.daisy.streamline.cli.Argument;
+import org.daisy.streamline.cli.CommandDetails;
+import org.daisy.streamline.cli.CommandParser;
+import org.daisy.streamline.cli.CommandParserResult;
+import org.daisy.streamline.cli.ExitCode;
+import org.daisy.streamline.cli.OptionalArgument;
+
+/**
+ * Provides a conversion server on a local socket. Not for public use.
+ * This class is a package class. Use DotifyCLI
+ *
+ * <p>The server keeps factories and catalogs loaded between jobs, so
+ * that only the first job pays for locating the service providers.
+ * Each connection runs one job. The client first sends the access token,
+ * which is read from a file that only the current user can read, on a line
+ * of its own. It then sends a single line containing a command followed by its
+ * arguments, separated by tabs (or spaces, if the line contains no tabs).
+ * The server responds with any messages from the job followed by a status line,
+ * which is one of <code>OK</code>, <code>FAILED</code> or <code>ERROR</code>
+ * followed by a message.</p>
+ */
+class ServeCLI implements CommandDetails {
+	private static final Logger logger = Logger.getLogger(ServeCLI.class.getCanonicalName());
+	/**
+	 * Defines the default port
+	 */
+	static final int DEFAULT_PORT = 7731;
+	private static final String PORT_KEY = "port";
+	private static final String THREADS_KEY = "threads";
+	private static final String TOKEN_FILE_KEY = "token-file";
+	private static final String SHUTDOWN = "shutdown";
+	private static final String OK = "OK";
+	private static final String FAILED = "FAILED";
+	private static final String ERROR = "ERROR";
+	// the time a client has to send its request
+	private static final int READ_TIMEOUT = 30000;
+	private static final int TOKEN_BYTES = 32;
+	private static final Set<PosixFilePermission> OWNER_ONLY = EnumSet.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE);
+	private final List<OptionalArgument> optionalArgs;
+	private final CommandParser parser;
+	private final Convert convert;
+	private PEFParser pefParser;
+	private volatile ServerSocket server;
+	private volatile byte[] token;
+
+	public ServeCLI() {
+		this.optionalArgs = new ArrayList<OptionalArgument>();
+		optionalArgs.add(new OptionalArgument(PORT_KEY, "The port to listen to on the loopback interface", "" + DEFAULT_PORT));
+		optionalArgs.add(new OptionalArgument(THREADS_KEY, "The number of jobs to run in parallel", "" + BatchRunner.defaultThreads()));
+		optionalArgs.add(new OptionalArgument(TOKEN_FILE_KEY, "The file containing the access token. It is created if it doesn't exist.", defaultTokenFile().toString()));
+		this.parser = CommandParser.create(this);
+		this.convert = new Convert();
+	}
+
+	static Path defaultTokenFile() {
+		return Paths.get(System.getProperty("user.home"), ".dotify", "serve-token");
+	}
+
+	public static void main(String[] args) throws IOException {
+		ServeCLI ui = new ServeCLI();
+		CommandParserResult result = ui.parser.parse(args);
+		if (!result.getRequired().isEmpty()) {
+			System.out.println("Unknown argument(s): " + result.getRequired());
+			System.out.println();
+			ui.parser.displayHelp(System.out);
+			ExitCode.UNKNOWN_ARGUMENT.exitSystem();
+		}
+		int port = DEFAULT_PORT;
+		String portStr = result.getOptional().get(PORT_KEY);
+		if (portStr!=null && !"".equals(portStr)) {
+			try {
+				port = Integer.parseInt(portStr);
+			} catch (NumberFormatException e) {
+				ExitCode.ILLEGAL_ARGUMENT_VALUE.exitSystem("Could not parse " + PORT_KEY + " value '" + portStr + "' as an integer.");
+			}
+		}
+		int threads = 1;
+		try {
+			threads = BatchRunner.parseThreads(result.getOptional().get(THREADS_KEY));
+		} catch (IllegalArgumentException e) {
+			ExitCode.ILLEGAL_ARGUMENT_VALUE.exitSystem(e.getMessage());
+		}
+		String tokenStr = result.getOptional().get(TOKEN_FILE_KEY);
+		Path tokenFile = tokenStr==null || "".equals(tokenStr) ? defaultTokenFile() : Paths.get(tokenStr);
+		byte[] token = null;
+		try {
+			token = readToken(tokenFile);
+		} catch (IOException e) {
+			ExitCode.ILLEGAL_ARGUMENT_VALUE.exitSystem("Cannot use token file " + tokenFile + ": " + e.getMessage());
+		}
+		ui.serve(port, threads, token);
+	}
+
+	/**
+	 * Reads the access token from a file. If the file doesn't exist, it is created with
+	 * a new random token. On systems with POSIX file permissions, the file must only be
+	 * readable and writable by its owner.
+	 * @param f the token file
+	 * @return the token
+	 * @throws IOException if the file cannot be read or created, if it is readable by others, or if it is empty
+	 */
+	static byte[] readToken(Path f) throws IOException {
+		boolean posix = f.getFileSystem().supportedFileAttributeViews().contains("posix");
+		if (!Files.exists(f)) {
+			byte[] b = new byte[TOKEN_BYTES];
+			new SecureRandom().nextBytes(b);
+			StringBuilder sb = new StringBuilder();
+			for (byte v : b) {
+				sb.append(String.format("%02x", v));
+			}
+			Path parent = f.toAbsolutePath().getParent();
+			if (parent!=null) {
+				Files.createDirectories(parent);
+			}
+			try {
+				if (posix) {
+					Files.createFile(f, PosixFilePermissions.asFileAttribute(OWNER_ONLY));
+				} else {
+					Files.createFile(f);
+					File file = f.toFile();
+					file.setReadable(false, false);
+					file.setReadable(true, true);
+					file.setWritable(false, false);
+					file.setWritable(true, true);
+				}
+				Files.write(f, (sb.toString() + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+				System.out.println("Created token file " + f);
+			} catch (FileAlreadyExistsException e) {
+				// created by someone else in the meantime, check it below
+			}
+		}
+		if (posix && !OWNER_ONLY.containsAll(Files.getPosixFilePermissions(f))) {
+			throw new IOException("The file must only be readable and writable by its owner (0600).");
+		}
+		String ret = new String(Files.readAllBytes(f), StandardCharsets.UTF_8).trim();
+		if (ret.isEmpty()) {
+			throw new IOException("The file is empty.");
+		}
+		return ret.getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Serves jobs until a shutdown command is received. Waits for running jobs
+	 * to finish before returning.
+	 * @param port the port to listen to
+	 * @param threads the number of jobs to run in parallel
+	 * @param token the access token that clients must send before the command
+	 * @throws IOException if the server socket fails
+	 */
+	void serve(int port, int threads, byte[] token) throws IOException {
+		this.token = token;
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try (ServerSocket ss = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+			server = ss;
+			System.out.println("Listening on " + ss.getInetAddress().getHostAddress() + ":" + ss.getLocalPort());
+			while (!ss.isClosed()) {
+				Socket socket;
+				try {
+					socket = ss.accept();
+				} catch (SocketException e) {
+					if (ss.isClosed()) {
+						break;
+					}
+					throw e;
+				}
+				executor.execute(()->handle(socket));
+			}
+		} finally {
+			executor.shutdown();
+			try {
+				executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		logger.info(SharedServices.getTaskSystemCache().toString());
+		logger.info(SharedServices.getIdentificationCache().toString());
+		System.out.println("Server stopped.");
+	}
+
+	private void handle(Socket socket) {
+		try (Socket s = socket;
+				BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+				PrintStream out = new PrintStream(s.getOutputStream(), true, "UTF-8")) {
+			s.setSoTimeout(READ_TIMEOUT);
+			if (!isAuthorized(in.readLine())) {
+				out.println(ERROR + " Not authorized.");
+				return;
+			}
+			String line = in.readLine();
+			if (line==null || "".equals(line.trim())) {
+				out.println(ERROR + " Expected a command.");
+				return;
+			}
+			// messages logged by the job are sent to the client
+			Handler h = new ClientHandler(out, Thread.currentThread().getId());
+			Logger root = Logger.getLogger("");
+			root.addHandler(h);
+			try {
+				out.println(runJob(toArgs(line), out) ? OK : FAILED);
+			} catch (Exception e) {
+				logger.log(Level.WARNING, "Job failed: " + line, e);
+				out.println(ERROR + " " + message(e));
+			} finally {
+				root.removeHandler(h);
+			}
+		} catch (IOException e) {
+			logger.log(Level.WARNING, "Connection failed.", e);
+		}
+	}
+
+	private boolean isAuthorized(String line) {
+		return line!=null && MessageDigest.isEqual(token, line.trim().getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Sends the messages logged on a job's thread to the client.
+	 */
+	private static class ClientHandler extends Handler {
+		private final PrintStream out;
+		private final long threadId;
+
+		private ClientHandler(PrintStream out, long threadId) {
+			this.out = out;
+			this.threadId = threadId;
+			setLevel(Level.INFO);
+			setFormatter(new SimpleFormatter());
+		}
+
+		@Override
+		public void publish(LogRecord record) {
+			if (record.getThreadID()==threadId && isLoggable(record)) {
+				out.println(record.getLevel().getLocalizedName() + ": " + getFormatter().formatMessage(record));
+			}
+		}
+
+		@Override
+		public void flush() {
+			out.flush();
+		}
+
+		@Override
+		public void close() {
+			// the stream is closed with the connection
+		}
+	}
+
+	/**
+	 * Gets the message of an exception, or its string representation if it has no message.
+	 * @param e the exception
+	 * @return the message, never null or empty
+	 */
+	static String message(Exception e) {
+		String ret = e.getMessage();
+		return ret==null || ret.trim().isEmpty() ? e.toString() : ret;
+	}
+
+	static String[] toArgs(String line) {
+		if (line.indexOf('\t')>-1) {
+			return line.split("\t");
+		} else {
+			return line.trim().split("\\s+");
+		}
+	}
+
+	private boolean runJob(String[] args, PrintStream out) throws Exception {
+		String[] jobArgs = Arrays.copyOfRange(args, 1, args.length);
+		switch (args[0]) {
+			case DotifyCLI.CONVERT: {
+				// the parser isn't thread safe, so each job gets its own
+				CommandParserResult result = CommandParser.create(convert).parse(jobArgs);
+				List<String> p = result.getRequired();
+				if (p.size()!=2) {
+					throw new IllegalArgumentException("Expected two arguments: input output [options ...]");
+				}
+				File input = new File(p.get(0));
+				if (!input.isFile()) {
+					throw new IllegalArgumentException("Input must be an existing file: " + input);
+				}
+				convert.runJob(input, new File(p.get(1)).getAbsoluteFile(), result.getOptional());
+				return true;
+			}
+			case DotifyCLI.VALIDATE: {
+				if (jobArgs.length!=1) {
+					throw new IllegalArgumentException("Expected one argument: input");
+				}
+				return new ValidatorFacade().validate(new File(jobArgs[0]), out);
+			}
+			case DotifyCLI.PEF2TEXT: {
+				Map<String, String> p = CommandParser.create(getPEFParser()).parse(jobArgs).toMap(PEFParser.ARG_PREFIX);
+				String input = p.remove(PEFParser.ARG_PREFIX+0);
+				String output = p.remove(PEFParser.ARG_PREFIX+1);
+				if (input==null || output==null) {
+					throw new IllegalArgumentException("Expected two arguments: input output [options ...]");
+				}
+				return getPEFParser().convert(new File(input), new File(output), p, out);
+			}
+			case SHUTDOWN: {
+				ServerSocket ss = server;
+				if (ss!=null) {
+					ss.close();
+				}
+				return true;
+			}
+			default:
+				throw new IllegalArgumentException("Unknown command: " + args[0]);
+		}
+	}
+
+	private synchronized PEFParser getPEFParser() {
+		if (pefParser==null) {
+			pefParser = new PEFParser();
+		}
+		return pefParser;
+	}
+
+	@Override
+	public String getName() {
+		return DotifyCLI.SERVE;
+	}
+
+	@Override
+	public String getDescription() {
+		return "Runs a server on a local socket that accepts " + DotifyCLI.CONVERT + ", "
+				+ DotifyCLI.VALIDATE + " and " + DotifyCLI.PEF2TEXT + " jobs.";
+	}
+
+	@Override
+	public List<Argument> getRequiredArguments() {
+		return new ArrayList<Argument>();
+	}
+
+	@Override
+	public List<OptionalArgument> getOptionalArguments() {
+		return optionalArgs;
+	}
+
+}
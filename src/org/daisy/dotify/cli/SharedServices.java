@@ -0,0 +1,85 @@
+package org.daisy.dotify.cli;
+
+import org.daisy.dotify.api.embosser.EmbosserCatalog;
+import org.daisy.dotify.api.table.TableCatalog;
+import org.daisy.streamline.api.config.ConfigurationsCatalog;
+import org.daisy.streamline.api.identity.IdentityProvider;
+import org.daisy.streamline.api.tasks.TaskSystemFactoryMaker;
+import org.daisy.streamline.api.validity.ValidatorFactoryMaker;
+
+/**
+ * Provides lazy loading of process wide service instances. Creating these
+ * instances involves scanning the class path for service providers, which
+ * is slow compared to a single conversion. Reusing them means that the
+ * cost is paid once per process instead of once per file.
+ */
+final class SharedServices {
+	private static TaskSystemFactoryMaker taskSystemFactoryMaker;
+	private static TaskSystemCache taskSystemCache;
+	private static IdentityProvider identityProvider;
+	private static IdentificationCache identificationCache;
+	private static ValidatorFactoryMaker validatorFactoryMaker;
+	private static ConfigurationsCatalog configurationsCatalog;
+	private static EmbosserCatalog embosserCatalog;
+	private static TableCatalog tableCatalog;
+
+	private SharedServices() {
+		throw new AssertionError("No instances allowed.");
+	}
+
+	static synchronized TaskSystemFactoryMaker getTaskSystemFactoryMaker() {
+		if (taskSystemFactoryMaker==null) {
+			taskSystemFactoryMaker = TaskSystemFactoryMaker.newInstance();
+		}
+		return taskSystemFactoryMaker;
+	}
+
+	static synchronized TaskSystemCache getTaskSystemCache() {
+		if (taskSystemCache==null) {
+			taskSystemCache = new TaskSystemCache(getTaskSystemFactoryMaker());
+		}
+		return taskSystemCache;
+	}
+
+	static synchronized IdentityProvider getIdentityProvider() {
+		if (identityProvider==null) {
+			identityProvider = IdentityProvider.newInstance();
+		}
+		return identityProvider;
+	}
+
+	static synchronized IdentificationCache getIdentificationCache() {
+		if (identificationCache==null) {
+			identificationCache = new IdentificationCache(getIdentityProvider());
+		}
+		return identificationCache;
+	}
+
+	static synchronized ValidatorFactoryMaker getValidatorFactoryMaker() {
+		if (validatorFactoryMaker==null) {
+			validatorFactoryMaker = ValidatorFactoryMaker.newInstance();
+		}
+		return validatorFactoryMaker;
+	}
+
+	static synchronized ConfigurationsCatalog getConfigurationsCatalog() {
+		if (configurationsCatalog==null) {
+			configurationsCatalog = ConfigurationsCatalog.newInstance();
+		}
+		return configurationsCatalog;
+	}
+
+	static synchronized EmbosserCatalog getEmbosserCatalog() {
+		if (embosserCatalog==null) {
+			embosserCatalog = EmbosserCatalog.newInstance();
+		}
+		return embosserCatalog;
+	}
+
+	static synchronized TableCatalog getTableCatalog() {
+		if (tableCatalog==null) {
+			tableCatalog = TableCatalog.newInstance();
+		}
+		return tableCatalog;
+	}
+}
@@ -18,17 +18,16 @@
 package org.daisy.dotify.cli;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
-import org.daisy.braille.utils.pef.PEFFileSplitter;
-import org.daisy.streamline.api.validity.Validator;
-import org.daisy.streamline.api.validity.ValidatorFactoryMaker;
-import org.daisy.streamline.api.validity.ValidatorFactoryMakerService;
 import org.daisy.streamline.cli.Argument;
 import org.daisy.streamline.cli.CommandDetails;
 import org.daisy.streamline.cli.CommandParser;
+import org.daisy.streamline.cli.CommandParserResult;
 import org.daisy.streamline.cli.ExitCode;
+import org.daisy.streamline.cli.OptionalArgument;
 
 /**
  * Provides a UI for splitting a PEF-file. Not for public use. 
@@ -36,9 +35,13 @@ import org.daisy.streamline.cli.ExitCode;
  * @author Joel Håkansson
  */
 class SplitPEF implements CommandDetails {
+	private static final String THREADS_KEY = "threads";
+	private final List<OptionalArgument> optionalArgs;
 	private final CommandParser parser;
 	
 	public SplitPEF() {
+		this.optionalArgs = new ArrayList<>();
+		optionalArgs.add(new OptionalArgument(THREADS_KEY, "The number of volumes to validate at the same time", "" + BatchRunner.defaultThreads()));
 		this.parser = CommandParser.create(this);
 	}
 
@@ -47,21 +50,45 @@ class SplitPEF implements CommandDetails {
 	 */
 	public static void main(String[] args) {
 		SplitPEF ui = new SplitPEF();
-		if (args.length!=2) {
+		CommandParserResult pr = ui.parser.parse(args);
+		if (pr.getRequired().size()!=2) {
 			System.out.println("Expected two arguments.");
 			System.out.println();
 			ui.parser.displayHelp(System.out);
 			ExitCode.MISSING_ARGUMENT.exitSystem();
 		}
-		File input = new File(args[0]);
-		File output = new File(args[1]);
-		ValidatorFactoryMakerService factory = ValidatorFactoryMaker.newInstance();
-		Validator validator = factory.newValidator("application/x-pef+xml");
-		if (validator==null) {
-			ExitCode.INTERNAL_ERROR.exitSystem("Failed to locate a validator");
+		File input = new File(pr.getRequired().get(0));
+		File output = new File(pr.getRequired().get(1));
+		if (!input.isFile()) {
+			ExitCode.MISSING_RESOURCE.exitSystem("Cannot find input file: " + input);
+		}
+		if (!output.isDirectory() && !output.mkdirs()) {
+			ExitCode.UNEXPECTED_RESOURCE_CONTENTS.exitSystem("Cannot create output folder: " + output);
+		}
+		int threads = 1;
+		try {
+			threads = BatchRunner.parseThreads(pr.getOptional().get(THREADS_KEY));
+		} catch (IllegalArgumentException e) {
+			ExitCode.ILLEGAL_ARGUMENT_VALUE.exitSystem(e.getMessage());
+		}
+		PEFVolumeSplitter splitter = new PEFVolumeSplitter(threads);
+		List<File> volumes = null;
+		try {
+			volumes = splitter.split(input, output);
+		} catch (IOException e) {
+			ExitCode.UNEXPECTED_RESOURCE_CONTENTS.exitSystem(e.getMessage());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			ExitCode.INTERNAL_ERROR.exitSystem("Interrupted while validating.");
+		}
+		List<File> invalid = splitter.getInvalid();
+		System.out.println("Wrote " + volumes.size() + " volume(s) to " + output);
+		if (!invalid.isEmpty()) {
+			for (File f : invalid) {
+				System.out.println("Invalid: " + f);
+			}
+			ExitCode.UNEXPECTED_RESOURCE_CONTENTS.exitSystem(invalid.size() + " volume(s) failed validation.");
 		}
-		PEFFileSplitter splitter = new PEFFileSplitter(url->validator.validate(url).isValid());
-		splitter.split(input, output);
 	}
 
 	@Override
@@ -83,4 +110,9 @@ class SplitPEF implements CommandDetails {
 		return ret;
 	}
 
+	@Override
+	public List<OptionalArgument> getOptionalArguments() {
+		return optionalArgs;
+	}
+
 }
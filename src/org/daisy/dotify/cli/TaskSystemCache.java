@@ -0,0 +1,132 @@
+package org.daisy.dotify.cli;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.daisy.streamline.api.tasks.TaskSystem;
+import org.daisy.streamline.api.tasks.TaskSystemFactoryException;
+import org.daisy.streamline.api.tasks.TaskSystemFactoryMaker;
+
+/**
+ * Provides a bounded cache of task systems, keyed by input format, output format and locale.
+ * A task system is borrowed for the duration of a job and then released, so that
+ * concurrent jobs never share an instance and can compile and run in parallel. Each
+ * key has a pool of idle task systems, and a new one is created when the pool is empty.
+ * When the cache is full, the pool of the least recently used key is evicted.
+ *
+ * <p>Only task systems are cached. Compiled task systems contain parameters that
+ * are specific to a single document, such as the input path and the conversion
+ * date, and can therefore not be reused between documents.</p>
+ */
+class TaskSystemCache {
+	/**
+	 * Defines the default maximum number of cached keys
+	 */
+	static final int DEFAULT_MAX_ENTRIES = 16;
+	private final TaskSystemFactoryMaker factory;
+	private final int maxIdle;
+	private final Map<List<String>, Deque<TaskSystem>> pools;
+	private long hits;
+	private long misses;
+
+	/**
+	 * Creates a new cache with the default maximum number of entries.
+	 * @param factory the factory to use when a task system is not in the cache
+	 */
+	TaskSystemCache(TaskSystemFactoryMaker factory) {
+		this(factory, DEFAULT_MAX_ENTRIES, BatchRunner.defaultThreads());
+	}
+
+	/**
+	 * Creates a new cache.
+	 * @param factory the factory to use when a task system is not in the cache
+	 * @param maxEntries the maximum number of cached keys
+	 * @param maxIdle the maximum number of idle task systems kept per key
+	 * @throws IllegalArgumentException if a size is less than one
+	 */
+	TaskSystemCache(TaskSystemFactoryMaker factory, int maxEntries, int maxIdle) {
+		if (maxEntries<1) {
+			throw new IllegalArgumentException("The cache size must be at least 1: " + maxEntries);
+		}
+		if (maxIdle<1) {
+			throw new IllegalArgumentException("The pool size must be at least 1: " + maxIdle);
+		}
+		this.factory = factory;
+		this.maxIdle = maxIdle;
+		this.pools = new LinkedHashMap<List<String>, Deque<TaskSystem>>(16, 0.75f, true) {
+			private static final long serialVersionUID = 2936117452473405738L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<List<String>, Deque<TaskSystem>> eldest) {
+				return size()>maxEntries;
+			}
+		};
+	}
+
+	/**
+	 * Borrows a task system for the specified formats and locale. The task system
+	 * is not used by anyone else until it is returned with {@link #release(String, String, String, TaskSystem)}.
+	 * @param inputFormat the input format
+	 * @param outputFormat the output format
+	 * @param locale the locale
+	 * @return a task system
+	 * @throws TaskSystemFactoryException if a task system could not be created
+	 */
+	TaskSystem borrow(String inputFormat, String outputFormat, String locale) throws TaskSystemFactoryException {
+		List<String> key = Arrays.asList(inputFormat, outputFormat, locale);
+		synchronized (this) {
+			Deque<TaskSystem> pool = pools.get(key);
+			TaskSystem ret = pool!=null ? pool.pollFirst() : null;
+			if (ret!=null) {
+				hits++;
+				return ret;
+			}
+			misses++;
+		}
+		// created outside of the lock, since it can be slow
+		return factory.newTaskSystem(inputFormat, outputFormat, locale);
+	}
+
+	/**
+	 * Returns a borrowed task system to the cache.
+	 * @param inputFormat the input format
+	 * @param outputFormat the output format
+	 * @param locale the locale
+	 * @param ts the task system
+	 */
+	synchronized void release(String inputFormat, String outputFormat, String locale, TaskSystem ts) {
+		Deque<TaskSystem> pool = pools.computeIfAbsent(Arrays.asList(inputFormat, outputFormat, locale), k->new ArrayDeque<>());
+		if (pool.size()<maxIdle) {
+			pool.addFirst(ts);
+		}
+	}
+
+	/**
+	 * Gets the number of requests that were found in the cache.
+	 * @return the number of hits
+	 */
+	synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Gets the number of requests that were not found in the cache.
+	 * @return the number of misses
+	 */
+	synchronized long getMisses() {
+		return misses;
+	}
+
+	@Override
+	public synchronized String toString() {
+		int idle = 0;
+		for (Deque<TaskSystem> pool : pools.values()) {
+			idle += pool.size();
+		}
+		return "Task system cache: " + hits + " hit(s), " + misses + " miss(es), " + idle + " cached";
+	}
+}
@@ -21,6 +21,7 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -52,6 +53,9 @@ class TextParser implements CommandDetails {
 	 * Prefix used for required arguments in the arguments map
 	 */
 	public static final String ARG_PREFIX = "required-";
+	private static final String THREADS_KEY = "threads";
+	private static final String RECURSIVE_KEY = "recursive";
+	private static final String BATCH_EXTENSION = "pef";
 	private final List<Argument> reqArgs;
 	private final List<OptionalArgument> optionalArgs;
 	private final SwitchMap switches;
@@ -60,9 +64,9 @@ class TextParser implements CommandDetails {
 
 	public TextParser() {
 		reqArgs = new ArrayList<Argument>();
-		reqArgs.add(new Argument("input", "path to the input file"));
-		reqArgs.add(new Argument("output", "path to the output file"));
-		TableCatalog tableCatalog = TableCatalog.newInstance();
+		reqArgs.add(new Argument("input", "path to the input file, folder or glob pattern"));
+		reqArgs.add(new Argument("output", "path to the output file, or output folder if the input is a folder or glob pattern"));
+		TableCatalog tableCatalog = SharedServices.getTableCatalog();
 		Collection<String> idents = new ArrayList<>();
 		for (FactoryProperties p : tableCatalog.list()) { idents.add(p.getIdentifier()); }
 		tableSF = new ShortFormResolver(idents);
@@ -74,8 +78,10 @@ class TextParser implements CommandDetails {
 		optionalArgs.add(new OptionalArgument(TextHandler.KEY_TITLE, "the title of the publication", "[undefined]"));
 		optionalArgs.add(new OptionalArgument(TextHandler.KEY_LANGUAGE, "set the publications language (as defined by IETF RFC 3066)", "[undefined]"));
 		//optionalArgs.add(new OptionalArgument(TextHandler.KEY_DUPLEX, "set the document's duplex property", "true"));
+		optionalArgs.add(new OptionalArgument(THREADS_KEY, "the number of files to convert in parallel when the input is a folder or glob pattern", "" + BatchRunner.defaultThreads()));
 		this.switches = new SwitchMap.Builder()
 				.addSwitch(new SwitchArgument('s', "simplex", TextHandler.KEY_DUPLEX, "false", "create single sided PEF-files"))
+				.addSwitch(new SwitchArgument('r', RECURSIVE_KEY, RECURSIVE_KEY, "true", "include files in subfolders when the input is a folder"))
 				.build();
 		this.parser = CommandParser.create(this);
 	}
@@ -93,16 +99,27 @@ class TextParser implements CommandDetails {
 				Map<String, String> p = ui.parser.parse(args).toMap(ARG_PREFIX);
 
 				// remove required argument
-				File input = new File(""+p.remove(ARG_PREFIX+0));
+				String inputStr = ""+p.remove(ARG_PREFIX+0);
+				File input = new File(inputStr);
 				File output = new File(""+p.remove(ARG_PREFIX+1));
+				String threadsStr = p.remove(THREADS_KEY);
+				boolean recursive = "true".equals(p.remove(RECURSIVE_KEY));
 				// remap
+				int threads = 1;
 				try {
 					ui.tableSF.expandShortForm(p, TextHandler.KEY_MODE);
+					threads = BatchRunner.parseThreads(threadsStr);
 				} catch (IllegalArgumentException e) {
 					ExitCode.ILLEGAL_ARGUMENT_VALUE.exitSystem(e.getMessage());
 				}
+				if (FileBatch.isBatch(inputStr)) {
+					if (!runBatch(inputStr, output, p, recursive, threads)) {
+						ExitCode.UNEXPECTED_RESOURCE_CONTENTS.exitSystem("Some files could not be converted.");
+					}
+					return;
+				}
 				// run
-				TextHandler.with(input, output, TableCatalog.newInstance())
+				TextHandler.with(input, output, SharedServices.getTableCatalog())
 					.options(p)
 					.parse();
 				System.out.println("Validating result...");
@@ -112,10 +129,39 @@ class TextParser implements CommandDetails {
 				}
 			} catch (IOException e) {
 				e.printStackTrace();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				ExitCode.INTERNAL_ERROR.exitSystem("Interrupted.");
 			}
 		}
 	}
 
+	/**
+	 * Converts the text files in a folder or matching a glob pattern into PEF-files
+	 * in the output folder. The files are converted in parallel, and a result that
+	 * is not valid is reported as failed.
+	 * @param input the input folder or glob pattern
+	 * @param output the output folder
+	 * @param p the options, short forms are expanded
+	 * @param recursive true if files in subfolders of an input folder should be included
+	 * @param threads the number of files to convert in parallel
+	 * @return true if all files were converted, false otherwise
+	 * @throws IOException if the input cannot be listed
+	 * @throws InterruptedException if interrupted while running
+	 */
+	static boolean runBatch(String input, File output, Map<String, String> p, boolean recursive, int threads) throws IOException, InterruptedException {
+		FileBatch batch = new FileBatch(input, output, BATCH_EXTENSION, recursive, threads);
+		return batch.run((in, out)->{
+			// each file gets its own copy of the options, in case they are modified
+			TextHandler.with(in, out, SharedServices.getTableCatalog())
+				.options(new HashMap<>(p))
+				.parse();
+			if (!new ValidatorFacade().validate(out)) {
+				throw new IOException("Validation failed for " + out);
+			}
+		}, System.out);
+	}
+
 	@Override
 	public String getName() {
 		return DotifyCLI.TEXT2PEF;
@@ -1,18 +1,34 @@
 package org.daisy.dotify.cli;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.io.LineNumberReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Deque;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 
 import org.daisy.dotify.api.factory.Factory;
 import org.daisy.dotify.api.factory.FactoryCatalog;
 import org.daisy.dotify.api.factory.FactoryProperties;
-import org.daisy.dotify.api.table.BrailleConverter;
 import org.daisy.dotify.api.table.TableCatalog;
 import org.daisy.dotify.api.translator.BrailleTranslator;
 import org.daisy.dotify.api.translator.BrailleTranslatorFactoryMaker;
@@ -39,6 +55,20 @@ public class TranslateCLI implements CommandDetails {
 	private static final String LOCALE_KEY = "locale";
 	private static final String MODE_KEY = "mode";
 	private static final String TABLE_KEY = "table";
+	private static final String CACHE_KEY = "cache";
+	private static final String INPUT_KEY = "input";
+	private static final String OUTPUT_KEY = "output";
+	private static final String CHARSET_KEY = "charset";
+	private static final String PARAGRAPH_KEY = "paragraph";
+	private static final String PROTOCOL_KEY = "protocol";
+	private static final String THREADS_KEY = "threads";
+	private static final String PROTOCOL_TEXT = "text";
+	private static final String PROTOCOL_JSONL = "jsonl";
+	private static final int BUFFER_SIZE = 1 << 16;
+	// the number of lines or paragraphs translated by a worker at a time
+	private static final int CHUNK_SIZE = 256;
+	// the number of chunks that may be waiting to be written, per worker
+	private static final int CHUNKS_PER_THREAD = 2;
 	private static final String HELP_KEY = "help";
 	private final List<Argument> reqArgs;
 	private final List<OptionalArgument> optionalArgs;
@@ -49,7 +79,7 @@ public class TranslateCLI implements CommandDetails {
 //translate --locale=da-dk --mode=contracted/8-dot
 	public TranslateCLI() {
 		this.reqArgs = new ArrayList<Argument>();
-		TableCatalog tableCatalog = TableCatalog.newInstance();
+		TableCatalog tableCatalog = SharedServices.getTableCatalog();
 		Collection<String> idents = new ArrayList<String>();
 		for (FactoryProperties p : tableCatalog.list()) { idents.add(p.getIdentifier()); }
 		tableSF = new ShortFormResolver(idents);
@@ -72,8 +102,18 @@ public class TranslateCLI implements CommandDetails {
 		optionalArgs.add(new OptionalArgument(LOCALE_KEY, "Braille locale. Note that the default locale is based on system settings, not on available braille locales.", translations, DEFAULT_LOCALE));
 		optionalArgs.add(new OptionalArgument(MODE_KEY, "Braille mode. For a list of modes, see the locale option.", DEFAULT_MODE));
 		optionalArgs.add(new OptionalArgument(TABLE_KEY, "Preview table to use", getDefinitionList(tableCatalog, tableSF), "unicode_braille"));
+		optionalArgs.add(new OptionalArgument(CACHE_KEY, "Caches translations of repeated lines. The value is the maximum size of the cache, in characters. The hit rate is reported on system err when done.", "[off]"));
+		optionalArgs.add(new OptionalArgument(INPUT_KEY, "Path to an input file to translate instead of system in", "[system in]"));
+		optionalArgs.add(new OptionalArgument(OUTPUT_KEY, "Path to an output file to write to instead of system out", "[system out]"));
+		optionalArgs.add(new OptionalArgument(CHARSET_KEY, "The character set of the input and output", Charset.defaultCharset().name()));
+		List<Definition> protocols = new ArrayList<>();
+		protocols.add(new Definition(PROTOCOL_TEXT, "Each line of input is translated into a line of output."));
+		protocols.add(new Definition(PROTOCOL_JSONL, "Each line of input is a JSON request with a text and optionally an id, locale, mode and table. Each request gives a JSON response line with the same id."));
+		optionalArgs.add(new OptionalArgument(PROTOCOL_KEY, "The input and output format", protocols, PROTOCOL_TEXT));
+		optionalArgs.add(new OptionalArgument(THREADS_KEY, "The number of lines, or paragraphs, to translate in parallel. The output is written in the same order as the input. Cannot be used with the jsonl protocol.", "1"));
 		this.switches = new SwitchMap.Builder()
 				.addSwitch(new SwitchArgument('h', HELP_KEY, META_KEY, HELP_KEY, "Help text."))
+				.addSwitch(new SwitchArgument('p', PARAGRAPH_KEY, PARAGRAPH_KEY, "true", "Translates paragraphs, separated by empty lines, instead of lines. The lines of a paragraph are joined with spaces. Cannot be used with the jsonl protocol."))
 				.build();
 		this.parser = CommandParser.create(this);
 	}
@@ -100,35 +140,230 @@ public class TranslateCLI implements CommandDetails {
 				mode = DEFAULT_MODE;
 			}
 
-			BrailleTranslator t = BrailleTranslatorFactoryMaker.newInstance().newTranslator(locale, mode);
-			TableCatalog tc = TableCatalog.newInstance();
+			String cacheStr = cmd.getOptional().get(CACHE_KEY);
+			TranslationCache cache = null;
+			if (cacheStr!=null && !"".equals(cacheStr)) {
+				try {
+					cache = new TranslationCache(Long.parseLong(cacheStr));
+				} catch (IllegalArgumentException e) {
+					ExitCode.ILLEGAL_ARGUMENT_VALUE.exitSystem("Illegal value for argument cache: " + cacheStr);
+				}
+			}
+
 			String table = cmd.getOptional().get(TABLE_KEY);
-			BrailleConverter bc = null;
-			if (table!=null && !"".equals(table)) {
-				bc = tc.newTable(tableSF.resolve(table)).newBrailleConverter();
+			if ("".equals(table)) {
+				table = null;
 			}
-			LineNumberReader lnr = new LineNumberReader(new InputStreamReader(System.in));
-			String text;
-			while ((text=lnr.readLine())!=null) {
+			String protocol = cmd.getOptional().get(PROTOCOL_KEY);
+			if (protocol!=null && !"".equals(protocol) && !PROTOCOL_TEXT.equals(protocol) && !PROTOCOL_JSONL.equals(protocol)) {
+				ExitCode.ILLEGAL_ARGUMENT_VALUE.exitSystem("Illegal value for argument protocol: " + protocol);
+			}
+			Charset charset = Charset.defaultCharset();
+			String charsetStr = cmd.getOptional().get(CHARSET_KEY);
+			if (charsetStr!=null && !"".equals(charsetStr)) {
 				try {
-					if (bc!=null) {
-						System.out.println(bc.toText(t.translate(Translatable.text(text).build()).getTranslatedRemainder()));
-					} else {
-						System.out.println(t.translate(Translatable.text(text).build()).getTranslatedRemainder());
-					}
-				} catch (TranslationException e) {
-					e.printStackTrace();
+					charset = Charset.forName(charsetStr);
+				} catch (IllegalArgumentException e) {
+					ExitCode.ILLEGAL_ARGUMENT_VALUE.exitSystem("Illegal value for argument charset: " + charsetStr);
 				}
 			}
+			String threadsStr = cmd.getOptional().get(THREADS_KEY);
+			int threads = 1;
+			if (threadsStr!=null && !"".equals(threadsStr)) {
+				try {
+					threads = BatchRunner.parseThreads(threadsStr);
+				} catch (IllegalArgumentException e) {
+					ExitCode.ILLEGAL_ARGUMENT_VALUE.exitSystem(e.getMessage());
+				}
+			}
+			boolean paragraphs = "true".equals(cmd.getOptional().get(PARAGRAPH_KEY));
+			String inputStr = cmd.getOptional().get(INPUT_KEY);
+			String outputStr = cmd.getOptional().get(OUTPUT_KEY);
+			boolean systemIn = inputStr==null || "".equals(inputStr);
+			if (!systemIn && !new File(inputStr).isFile()) {
+				ExitCode.MISSING_RESOURCE.exitSystem("Cannot find input file: " + inputStr);
+			}
+			if (PROTOCOL_JSONL.equals(protocol) && (threads>1 || paragraphs)) {
+				ExitCode.ILLEGAL_ARGUMENT_VALUE.exitSystem("The threads argument and the paragraph switch cannot be used with the " + PROTOCOL_JSONL + " protocol");
+			}
+			// decided once, so that the chunks and the flushing do not depend on the timing of the input
+			boolean interactive = systemIn && System.console()!=null;
+			try (
+				BufferedReader in = new BufferedReader(systemIn
+						? new InputStreamReader(System.in, charset)
+						: Channels.newReader(FileChannel.open(Paths.get(inputStr), StandardOpenOption.READ), charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE), BUFFER_SIZE), BUFFER_SIZE);
+				BufferedWriter out = new BufferedWriter(outputStr==null || "".equals(outputStr)
+						? new OutputStreamWriter(System.out, charset)
+						: Channels.newWriter(FileChannel.open(Paths.get(outputStr), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE), charset.newEncoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE), BUFFER_SIZE), BUFFER_SIZE);
+			) {
+				if (PROTOCOL_JSONL.equals(protocol)) {
+					new TranslateProtocol(locale, mode, table, tableSF, cache).run(in, out, systemIn);
+				} else {
+					translateLines(in, out, locale, mode, table, cache, paragraphs, interactive, threads);
+				}
+			}
+			if (cache!=null) {
+				System.err.println(cache);
+			}
 		} catch (TranslatorConfigurationException e) {
 			System.err.println("Cannot find a translator.");
 			e.printStackTrace();
 		}
 	}
 
+	private void translateLines(BufferedReader in, BufferedWriter out, String locale, String mode, String table, TranslationCache cache, boolean paragraphs, boolean interactive, int threads) throws IOException, TranslatorConfigurationException {
+		// also created when translating in parallel, so that a missing translator is reported before reading
+		BrailleTranslator t = BrailleTranslatorFactoryMaker.newInstance().newTranslator(locale, mode);
+		LookupBrailleConverter bc = null;
+		if (table!=null) {
+			bc = LookupBrailleConverter.compile(SharedServices.getTableCatalog().newTable(tableSF.resolve(table)).newBrailleConverter());
+		}
+		if (threads>1) {
+			translateLinesParallel(in, out, locale, mode, bc, cache, paragraphs, interactive, threads);
+			return;
+		}
+		String text;
+		int index = 0;
+		while ((text=paragraphs ? readParagraph(in) : in.readLine())!=null) {
+			index++;
+			out.write(translateOrReport(text, index, paragraphs, locale, mode, t, cache, bc));
+			out.newLine();
+			if (paragraphs) {
+				out.newLine();
+			}
+			// when someone is typing, show the result right away
+			if (interactive) {
+				out.flush();
+			}
+		}
+	}
+
+	/**
+	 * Translates lines, or paragraphs, in chunks on a pool of workers. The chunks are
+	 * written in the order they were read, and the number of chunks that are read but
+	 * not yet written is bounded, so memory use does not depend on the size of the input.
+	 */
+	private static void translateLinesParallel(BufferedReader in, BufferedWriter out, String locale, String mode, LookupBrailleConverter bc, TranslationCache cache, boolean paragraphs, boolean interactive, int threads) throws IOException {
+		BrailleTranslatorFactoryMaker factory = BrailleTranslatorFactoryMaker.newInstance();
+		// translators are not thread safe, so each worker creates its own
+		ThreadLocal<BrailleTranslator> translators = new ThreadLocal<>();
+		String separator = paragraphs ? System.lineSeparator() + System.lineSeparator() : System.lineSeparator();
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		Deque<Future<String>> pending = new ArrayDeque<>();
+		try {
+			List<String> chunk = new ArrayList<>(CHUNK_SIZE);
+			// the number of the first line, or paragraph, in the chunk
+			int first = 1;
+			String text;
+			while ((text=paragraphs ? readParagraph(in) : in.readLine())!=null) {
+				chunk.add(text);
+				// when someone is typing, show the result right away
+				if (chunk.size()>=CHUNK_SIZE || interactive) {
+					pending.add(executor.submit(translateChunk(chunk, first, paragraphs, locale, mode, factory, translators, cache, bc, separator)));
+					first += chunk.size();
+					chunk = new ArrayList<>(CHUNK_SIZE);
+				}
+				while (pending.size()>=threads * CHUNKS_PER_THREAD || (interactive && !pending.isEmpty())) {
+					out.write(take(pending));
+				}
+				if (interactive) {
+					out.flush();
+				}
+			}
+			if (!chunk.isEmpty()) {
+				pending.add(executor.submit(translateChunk(chunk, first, paragraphs, locale, mode, factory, translators, cache, bc, separator)));
+			}
+			while (!pending.isEmpty()) {
+				out.write(take(pending));
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private static Callable<String> translateChunk(List<String> chunk, int first, boolean paragraphs, String locale, String mode, BrailleTranslatorFactoryMaker factory,
+			ThreadLocal<BrailleTranslator> translators, TranslationCache cache, LookupBrailleConverter bc, String separator) {
+		return ()->{
+			BrailleTranslator t = translators.get();
+			if (t==null) {
+				synchronized (factory) {
+					t = factory.newTranslator(locale, mode);
+				}
+				translators.set(t);
+			}
+			StringBuilder sb = new StringBuilder();
+			int index = first;
+			for (String text : chunk) {
+				sb.append(translateOrReport(text, index, paragraphs, locale, mode, t, cache, bc)).append(separator);
+				index++;
+			}
+			return sb.toString();
+		};
+	}
+
+	private static String take(Deque<Future<String>> pending) throws IOException {
+		try {
+			return pending.remove().get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while translating");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException)e.getCause();
+			}
+			throw new IOException("Failed to translate", e.getCause());
+		}
+	}
+
+	/**
+	 * Translates a line, or paragraph. If it cannot be translated, the error is reported
+	 * on system err and an empty string is returned, so that the output stays aligned
+	 * with the input.
+	 */
+	private static String translateOrReport(String text, int index, boolean paragraphs, String locale, String mode, BrailleTranslator t, TranslationCache cache, LookupBrailleConverter bc) {
+		try {
+			return translate(text, locale, mode, t, cache, bc);
+		} catch (TranslationException e) {
+			System.err.println("Failed to translate " + (paragraphs ? "paragraph " : "line ") + index + ": " + e.getMessage());
+			return "";
+		}
+	}
+
+	private static String translate(String text, String locale, String mode, BrailleTranslator t, TranslationCache cache, LookupBrailleConverter bc) throws TranslationException {
+		String braille = cache!=null
+				? cache.translate(locale, mode, text, t)
+				: t.translate(Translatable.text(text).build()).getTranslatedRemainder();
+		return bc!=null ? bc.toText(braille) : braille;
+	}
+
+	/**
+	 * Reads lines until an empty line or the end of the input, and joins them with spaces.
+	 * Empty lines before the paragraph are skipped.
+	 * @param in the reader
+	 * @return the paragraph, or null if there are no more paragraphs
+	 * @throws IOException if an I/O error occurs
+	 */
+	static String readParagraph(BufferedReader in) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		String line;
+		while ((line = in.readLine())!=null) {
+			if (line.trim().isEmpty()) {
+				if (sb.length()>0) {
+					break;
+				}
+			} else {
+				if (sb.length()>0) {
+					sb.append(' ');
+				}
+				sb.append(line);
+			}
+		}
+		return sb.length()>0 ? sb.toString() : null;
+	}
+
 	@Override
 	public String getDescription() {
-		return "Translates text on system in to braille on system out";
+		return "Translates text on system in, or a file, to braille on system out, or a file";
 	}
 
 	@Override
@@ -0,0 +1,181 @@
+package org.daisy.dotify.cli;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.daisy.dotify.api.translator.BrailleTranslator;
+import org.daisy.dotify.api.translator.BrailleTranslatorFactoryMaker;
+import org.daisy.dotify.api.translator.Translatable;
+import org.daisy.dotify.api.translator.TranslationException;
+import org.daisy.dotify.api.translator.TranslatorConfigurationException;
+import org.daisy.streamline.cli.ShortFormResolver;
+
+/**
+ * Provides a line delimited JSON protocol for translating text, so that a single
+ * process can serve many translation requests. Each input line is a request object,
+ * for example:
+ * <pre>{"id":1,"locale":"sv-SE","mode":"uncontracted","table":"sv_SE","text":"Hej"}</pre>
+ * All members except <code>text</code> are optional. A missing locale, mode or table
+ * is taken from the command line. A table that is null or empty means that braille
+ * patterns are returned, regardless of the command line. Each request gives exactly one response line, in
+ * the same order as the requests:
+ * <pre>{"id":1,"braille":"..."}</pre>
+ * or, if the request fails:
+ * <pre>{"id":1,"error":"..."}</pre>
+ *
+ * <p>Translators are created once per locale and mode and tables once per table
+ * identifier, and then reused. At most {@link #MAX_CACHED} of each are kept, the least
+ * recently used are removed first.</p>
+ */
+class TranslateProtocol {
+	static final String ID = "id";
+	static final String LOCALE = "locale";
+	static final String MODE = "mode";
+	static final String TABLE = "table";
+	static final String TEXT = "text";
+	static final String BRAILLE = "braille";
+	static final String ERROR = "error";
+	/**
+	 * Defines the maximum number of translators, and of tables, that are kept
+	 */
+	static final int MAX_CACHED = 16;
+	private final String defaultLocale;
+	private final String defaultMode;
+	private final String defaultTable;
+	private final ShortFormResolver tableSF;
+	private final TranslationCache cache;
+	private final BrailleTranslatorFactoryMaker factory;
+	private final Map<String, BrailleTranslator> translators;
+	private final Map<String, LookupBrailleConverter> tables;
+
+	/**
+	 * Creates a new protocol handler.
+	 * @param defaultLocale the locale to use when a request doesn't have one
+	 * @param defaultMode the mode to use when a request doesn't have one
+	 * @param defaultTable the table to use when a request doesn't have one, or null to output braille patterns
+	 * @param tableSF the resolver of table short forms
+	 * @param cache the translation cache, or null
+	 */
+	TranslateProtocol(String defaultLocale, String defaultMode, String defaultTable, ShortFormResolver tableSF, TranslationCache cache) {
+		this.defaultLocale = defaultLocale;
+		this.defaultMode = defaultMode;
+		this.defaultTable = defaultTable;
+		this.tableSF = tableSF;
+		this.cache = cache;
+		this.factory = BrailleTranslatorFactoryMaker.newInstance();
+		this.translators = newLRUMap(MAX_CACHED);
+		this.tables = newLRUMap(MAX_CACHED);
+	}
+
+	private static <V> Map<String, V> newLRUMap(int maxEntries) {
+		return new LinkedHashMap<String, V>(16, 0.75f, true) {
+			private static final long serialVersionUID = -4610258414728936581L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+				return size()>maxEntries;
+			}
+		};
+	}
+
+	/**
+	 * Reads requests and writes responses until the end of the input. Empty lines are ignored.
+	 * @param in the requests
+	 * @param out the responses
+	 * @param interactive true if responses should be flushed as soon as no more requests are waiting
+	 * @throws IOException if an I/O error occurs
+	 */
+	void run(BufferedReader in, BufferedWriter out, boolean interactive) throws IOException {
+		String line;
+		while ((line = in.readLine())!=null) {
+			if (line.trim().isEmpty()) {
+				continue;
+			}
+			out.write(handle(line));
+			out.newLine();
+			// the client is typically waiting for the response before sending the next request
+			if (interactive && !in.ready()) {
+				out.flush();
+			}
+		}
+	}
+
+	/**
+	 * Handles a single request.
+	 * @param request the request line
+	 * @return the response line, with an error message if the request fails
+	 */
+	String handle(String request) {
+		Map<String, Object> response = new LinkedHashMap<>();
+		Object id = null;
+		try {
+			Object o = Json.parse(request);
+			if (!(o instanceof Map)) {
+				throw new IllegalArgumentException("The request must be an object");
+			}
+			Map<?, ?> req = (Map<?, ?>)o;
+			id = req.get(ID);
+			response.put(ID, id);
+			Object text = req.get(TEXT);
+			if (!(text instanceof String)) {
+				throw new IllegalArgumentException("The request must have a text");
+			}
+			String locale = getString(req, LOCALE, defaultLocale);
+			String mode = getString(req, MODE, defaultMode);
+			// an explicit empty table overrides the default
+			String table = req.containsKey(TABLE) ? getString(req, TABLE, null) : defaultTable;
+			BrailleTranslator t = getTranslator(locale, mode);
+			String braille = cache!=null
+					? cache.translate(locale, mode, (String)text, t)
+					: t.translate(Translatable.text((String)text).build()).getTranslatedRemainder();
+			LookupBrailleConverter bc = getTable(table);
+			response.put(BRAILLE, bc!=null ? bc.toText(braille) : braille);
+		} catch (TranslationException | TranslatorConfigurationException | RuntimeException e) {
+			// a failed request must never end the process or leave the client without a response
+			response.clear();
+			response.put(ID, id);
+			response.put(ERROR, e.getMessage()!=null ? e.getMessage() : e.getClass().getSimpleName());
+		}
+		return Json.toJson(response);
+	}
+
+	private static String getString(Map<?, ?> req, String key, String def) {
+		Object ret = req.get(key);
+		if (ret==null || "".equals(ret)) {
+			return def;
+		} else if (ret instanceof String) {
+			return (String)ret;
+		} else {
+			throw new IllegalArgumentException("The value of " + key + " must be a string");
+		}
+	}
+
+	private BrailleTranslator getTranslator(String locale, String mode) throws TranslatorConfigurationException {
+		String key = locale + '\u0000' + mode;
+		BrailleTranslator ret = translators.get(key);
+		if (ret==null) {
+			ret = factory.newTranslator(locale, mode);
+			translators.put(key, ret);
+		}
+		return ret;
+	}
+
+	private LookupBrailleConverter getTable(String table) {
+		if (table==null) {
+			return null;
+		}
+		LookupBrailleConverter ret = tables.get(table);
+		if (ret==null) {
+			String ident = tableSF.resolve(table);
+			if (ident==null) {
+				throw new IllegalArgumentException("Unknown table: " + table);
+			}
+			ret = LookupBrailleConverter.compile(SharedServices.getTableCatalog().newTable(ident).newBrailleConverter());
+			tables.put(table, ret);
+		}
+		return ret;
+	}
+}
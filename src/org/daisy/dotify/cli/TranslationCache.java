@@ -0,0 +1,126 @@
+package org.daisy.dotify.cli;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.daisy.dotify.api.translator.BrailleTranslator;
+import org.daisy.dotify.api.translator.Translatable;
+import org.daisy.dotify.api.translator.TranslationException;
+
+/**
+ * Provides a bounded cache of translations. Entries are keyed by locale, mode and
+ * text, so that a cache can be shared by several translators. The size of the cache
+ * is measured in characters, counting both the text and the translation, so that a
+ * few long texts cannot take up more memory than the limit allows. When the cache
+ * is full, the least recently used entries are evicted.
+ */
+class TranslationCache {
+	/**
+	 * Defines the default maximum number of cached characters
+	 */
+	static final long DEFAULT_MAX_CHARS = 1 << 20;
+	private static final char SEPARATOR = '\u0000';
+	private final long maxChars;
+	private final LinkedHashMap<String, String> entries;
+	private long chars;
+	private long hits;
+	private long misses;
+
+	/**
+	 * Creates a new cache with the default maximum size.
+	 */
+	TranslationCache() {
+		this(DEFAULT_MAX_CHARS);
+	}
+
+	/**
+	 * Creates a new cache.
+	 * @param maxChars the maximum number of cached characters
+	 * @throws IllegalArgumentException if the size is less than one
+	 */
+	TranslationCache(long maxChars) {
+		if (maxChars<1) {
+			throw new IllegalArgumentException("The cache size must be at least 1: " + maxChars);
+		}
+		this.maxChars = maxChars;
+		this.entries = new LinkedHashMap<>(16, 0.75f, true);
+		this.chars = 0;
+	}
+
+	/**
+	 * Translates a text. If the text has been translated before with the same locale
+	 * and mode, the previous result is returned.
+	 * @param locale the locale of the translator
+	 * @param mode the mode of the translator
+	 * @param text the text to translate
+	 * @param t the translator to use if the text is not in the cache
+	 * @return the translated text
+	 * @throws TranslationException if the translation fails
+	 */
+	String translate(String locale, String mode, String text, BrailleTranslator t) throws TranslationException {
+		String key = locale + SEPARATOR + mode + SEPARATOR + text;
+		synchronized (this) {
+			String ret = entries.get(key);
+			if (ret!=null) {
+				hits++;
+				return ret;
+			}
+			misses++;
+		}
+		// translation is done outside of the lock, since it can be slow
+		String ret = t.translate(Translatable.text(text).build()).getTranslatedRemainder();
+		long weight = (long)key.length() + ret.length();
+		if (weight<=maxChars) {
+			synchronized (this) {
+				String old = entries.put(key, ret);
+				if (old!=null) {
+					chars -= key.length() + old.length();
+				}
+				chars += weight;
+				evict();
+			}
+		}
+		return ret;
+	}
+
+	private void evict() {
+		Iterator<Map.Entry<String, String>> i = entries.entrySet().iterator();
+		while (chars>maxChars && i.hasNext()) {
+			Map.Entry<String, String> e = i.next();
+			chars -= e.getKey().length() + e.getValue().length();
+			i.remove();
+		}
+	}
+
+	/**
+	 * Gets the number of requests that were found in the cache.
+	 * @return the number of hits
+	 */
+	synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Gets the number of requests that were not found in the cache.
+	 * @return the number of misses
+	 */
+	synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Gets the share of requests that were found in the cache.
+	 * @return the hit rate, between 0 and 1
+	 */
+	synchronized double getHitRate() {
+		long total = hits + misses;
+		return total==0 ? 0 : (double)hits / total;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("Translation cache: %d hit(s), %d miss(es), %.1f%% hit rate, %d cached (%d of %d characters)",
+				hits, misses, getHitRate() * 100, entries.size(), chars, maxChars);
+	}
+}
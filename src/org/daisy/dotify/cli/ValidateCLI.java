@@ -2,13 +2,21 @@ package org.daisy.dotify.cli;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
-import org.daisy.streamline.api.identity.IdentityProvider;
 import org.daisy.streamline.api.media.AnnotatedFile;
 import org.daisy.streamline.api.option.UserOption;
 import org.daisy.streamline.api.validity.ValidationReport;
@@ -21,46 +29,81 @@ import org.daisy.streamline.cli.CommandParserResult;
 import org.daisy.streamline.cli.Definition;
 import org.daisy.streamline.cli.ExitCode;
 import org.daisy.streamline.cli.OptionalArgument;
+import org.daisy.streamline.cli.SwitchArgument;
+import org.daisy.streamline.cli.SwitchMap;
 
 class ValidateCLI implements CommandDetails {
+	private static final Logger logger = Logger.getLogger(ValidateCLI.class.getCanonicalName());
 	public static final String MEDIA_TYPE = "mediaType";
+	private static final String THREADS_KEY = "threads";
+	private static final String RECURSIVE_KEY = "recursive";
 	private final CommandParser parser;
+	private final SwitchMap switches;
 	
 	public ValidateCLI() {
+		this.switches = new SwitchMap.Builder()
+				.addSwitch(new SwitchArgument('r', RECURSIVE_KEY, RECURSIVE_KEY, "true", "Includes files in subfolders of input folders."))
+				.build();
 		this.parser = CommandParser.create(this);
 	}
 
 	public static void main(String[] args) throws IOException {
 		ValidateCLI ui = new ValidateCLI();
 		if (args.length<1) {
-			System.out.println("Expected one more argument: input [options ...]");
+			System.out.println("Expected at least one more argument: input [input ...] [options ...]");
 			System.out.println();
 			ui.parser.displayHelp(System.out);
 			ExitCode.MISSING_ARGUMENT.exitSystem();
 		}
-		File in = new File(args[0]);
-		if (!in.exists()) {
-			ExitCode.MISSING_RESOURCE.exitSystem("File does not exist: " + in);
-		}
 		CommandParserResult result = ui.parser.parse(args);
-		String mediaType = result.getOptional().get(MEDIA_TYPE);
+		List<String> inputs = result.getRequired();
+		Map<String, String> opts = new HashMap<>(result.getOptional());
+		String threadsStr = opts.remove(THREADS_KEY);
+		boolean recursive = "true".equals(opts.remove(RECURSIVE_KEY));
+		if (inputs.isEmpty()) {
+			ExitCode.MISSING_ARGUMENT.exitSystem("Expected at least one input.");
+		}
+		if (inputs.size()==1 && new File(inputs.get(0)).isFile()) {
+			validateFile(new File(inputs.get(0)), opts);
+		} else {
+			int threads = 1;
+			try {
+				threads = BatchRunner.parseThreads(threadsStr);
+			} catch (IllegalArgumentException e) {
+				ExitCode.ILLEGAL_ARGUMENT_VALUE.exitSystem(e.getMessage());
+			}
+			ValidationBatch batch = new ValidationBatch(opts, System.out);
+			try {
+				batch.run(inputs, recursive, threads);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				ExitCode.INTERNAL_ERROR.exitSystem("Interrupted.");
+			}
+			batch.printSummary(System.err);
+			if (!batch.isSuccessful()) {
+				ExitCode.UNEXPECTED_RESOURCE_CONTENTS.exitSystem();
+			}
+		}
+	}
+
+	private static void validateFile(File in, Map<String, String> opts) throws IOException {
+		String mediaType = opts.get(MEDIA_TYPE);
 		if (mediaType == null) {
-			AnnotatedFile an = IdentityProvider.newInstance().identify(in);
+			AnnotatedFile an = SharedServices.getIdentificationCache().identify(in);
 			mediaType = an.getMediaType();
 		}
 		if (mediaType == null) {
 			ExitCode.INTERNAL_ERROR.exitSystem(String.format("Could not determine media type for %s", in.getName()));
 		}
-		ValidatorFactoryMaker factoryMaker = ValidatorFactoryMaker.newInstance();
-		Validator pv = factoryMaker.newValidator(mediaType);
+		Validator pv = ValidatorFacade.getValidator(mediaType);
 		if (pv == null) {
 			ExitCode.INTERNAL_ERROR.exitSystem(String.format("Could not find validator for '%s'", mediaType));
 		}
 		System.out.println("Validating " + in + " using \"" + pv.getClass().getName() + "\"" 
-				+ (result.getOptional().isEmpty()?"":" with options " + result.getOptional())
+				+ (opts.isEmpty()?"":" with options " + opts)
 				);
 		Map<String, Object> options = new HashMap<>();
-		options.putAll(result.getOptional());
+		options.putAll(opts);
 		ValidationReport report = pv.validate(in.toURI().toURL(), options);
 		System.out.println("Validation was " + (report.isValid() ? "succcessful" : "unsuccessful"));
 		if (!report.isValid()) {
@@ -69,6 +112,115 @@ class ValidateCLI implements CommandDetails {
 		}
 	}
 
+	/**
+	 * Provides validation of many files in parallel. A report is written for
+	 * each file as a single line of JSON, in the order that the files finish.
+	 */
+	private static class ValidationBatch {
+		private static final String VALID = "valid";
+		private static final String INVALID = "invalid";
+		private static final String SKIPPED = "skipped";
+		private static final String ERROR = "error";
+		private final String mediaType;
+		private final Map<String, Object> options;
+		private final PrintStream out;
+		private final AtomicInteger valid = new AtomicInteger();
+		private final AtomicInteger invalid = new AtomicInteger();
+		private final AtomicInteger skipped = new AtomicInteger();
+		private final AtomicInteger errors = new AtomicInteger();
+
+		private ValidationBatch(Map<String, String> opts, PrintStream out) {
+			Map<String, String> o = new HashMap<>(opts);
+			this.mediaType = o.remove(MEDIA_TYPE);
+			this.options = new HashMap<>(o);
+			this.out = out;
+		}
+
+		private void run(List<String> inputs, boolean recursive, int threads) throws InterruptedException {
+			BatchRunner runner = new BatchRunner(threads);
+			try {
+				for (String input : inputs) {
+					try (Stream<Path> files = InputFiles.list(input, recursive)) {
+						Iterator<Path> i = files.iterator();
+						while (i.hasNext()) {
+							File f = i.next().toFile();
+							runner.submit(f.getPath(), ()->{
+								try {
+									return validate(f);
+								} catch (Exception e) {
+									logger.log(Level.FINE, "Failed to validate " + f, e);
+									report(f.getPath(), ERROR, null, null, Collections.singletonList(message(e)));
+									errors.incrementAndGet();
+									return false;
+								}
+							});
+						}
+					} catch (IOException | UncheckedIOException e) {
+						report(input, ERROR, null, null, Collections.singletonList(message(e)));
+						errors.incrementAndGet();
+					}
+				}
+			} finally {
+				runner.awaitCompletion();
+			}
+		}
+
+		/**
+		 * Gets a message for an exception. Some exceptions don't have a message,
+		 * in which case the name of the exception is used.
+		 */
+		private static String message(Exception e) {
+			String ret = e.getMessage();
+			return ret==null || ret.trim().isEmpty() ? e.getClass().getName() : ret;
+		}
+
+		private boolean validate(File f) throws IOException {
+			String type = mediaType;
+			if (type == null) {
+				type = SharedServices.getIdentificationCache().identify(f).getMediaType();
+			}
+			Validator pv = type==null ? null : ValidatorFacade.getValidator(type);
+			if (pv == null) {
+				report(f.getPath(), SKIPPED, type, null, Collections.singletonList(type==null ? "Unknown media type" : "No validator for media type"));
+				skipped.incrementAndGet();
+				return false;
+			}
+			ValidationReport report = pv.validate(f.toURI().toURL(), options);
+			if (report.isValid()) {
+				valid.incrementAndGet();
+				report(f.getPath(), VALID, type, pv, Collections.emptyList());
+			} else {
+				invalid.incrementAndGet();
+				report(f.getPath(), INVALID, type, pv, 
+						report.getMessages().stream().map(Object::toString).collect(Collectors.toList()));
+			}
+			return true;
+		}
+
+		private void report(String file, String status, String type, Validator pv, List<String> messages) {
+			StringBuilder sb = new StringBuilder();
+			sb.append("{\"file\":").append(Json.quote(file));
+			sb.append(",\"status\":").append(Json.quote(status));
+			sb.append(",\"mediaType\":").append(Json.quote(type));
+			sb.append(",\"validator\":").append(Json.quote(pv==null ? null : pv.getClass().getName()));
+			sb.append(",\"messages\":[");
+			sb.append(messages.stream().map(Json::quote).collect(Collectors.joining(",")));
+			sb.append("]}");
+			// a single call, so that lines from different threads are not interleaved
+			out.println(sb.toString());
+		}
+
+		private boolean isSuccessful() {
+			return invalid.get()==0 && errors.get()==0;
+		}
+
+		private void printSummary(PrintStream ps) {
+			ps.println("Validated " + (valid.get() + invalid.get() + skipped.get() + errors.get()) + " file(s): "
+					+ valid.get() + " valid, " + invalid.get() + " invalid, " + skipped.get() + " skipped, " + errors.get() + " failed.");
+			logger.fine(SharedServices.getIdentificationCache().toString());
+		}
+	}
+
 	@Override
 	public String getName() {
 		return DotifyCLI.VALIDATE;
@@ -76,16 +228,22 @@ class ValidateCLI implements CommandDetails {
 	
 	@Override
 	public String getDescription() {
-		return "Validates a file.";
+		return "Validates files. If more than one file is given, the files are validated in parallel "
+				+ "and a report is written for each file as a line of JSON.";
 	}
 
 	@Override
 	public List<Argument> getRequiredArguments() {
 		ArrayList<Argument> ret = new ArrayList<Argument>();
-		ret.add(new Argument("input_file", "Path to the input file"));
+		ret.add(new Argument("input", "Path to the input file, folder or glob pattern. Several inputs may be given."));
 		return ret;
 	}
 
+	@Override
+	public SwitchMap getSwitches() {
+		return switches;
+	}
+
 	@Override
 	public List<OptionalArgument> getOptionalArguments() {
 		ValidatorFactoryMaker factoryMaker = ValidatorFactoryMaker.newInstance();
@@ -95,6 +253,7 @@ class ValidateCLI implements CommandDetails {
 					.map(v->new Definition(v, ""))
 					.collect(Collectors.toList()),
 				"[detect]"));
+		ret.add(new OptionalArgument(THREADS_KEY, "The number of files to validate in parallel", "" + BatchRunner.defaultThreads()));
 		for (String identifier : factoryMaker.listIdentifiers()) {
 			Validator v = factoryMaker.newValidator(identifier);
 			for (UserOption u : v.listOptions()) {
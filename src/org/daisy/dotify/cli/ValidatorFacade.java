@@ -4,8 +4,9 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.Map;
 
-import org.daisy.streamline.api.identity.IdentityProvider;
 import org.daisy.streamline.api.media.AnnotatedFile;
 import org.daisy.streamline.api.validity.ValidationReport;
 import org.daisy.streamline.api.validity.Validator;
@@ -16,13 +17,38 @@ import org.daisy.streamline.api.validity.ValidatorFactoryMaker;
  * @author Joel Håkansson
  */
 class ValidatorFacade {
-	private final ValidatorFactoryMaker factory;
+	/**
+	 * Defines the PEF media type
+	 */
+	static final String PEF_MEDIA_TYPE = "application/x-pef+xml";
+	/**
+	 * Validators are not guaranteed to be thread safe, so each thread gets its own instances.
+	 * Creating a validator can be expensive (the PEF validator compiles its schemas), so the
+	 * instances are kept for the lifetime of the thread. Worker threads in batch mode are
+	 * reused between files, which means that a validator is created once per worker and
+	 * media type rather than once per file.
+	 */
+	private static final ThreadLocal<Map<String, Validator>> VALIDATORS = ThreadLocal.withInitial(HashMap::new);
 
 	/**
-	 * Creates a new validator facade.
+	 * Gets a validator for the specified media type. The validator is owned by the
+	 * current thread and must not be shared with other threads.
+	 * @param mediaType the media type
+	 * @return a validator, or null if no validator supports the media type
 	 */
-	ValidatorFacade() {
-		this.factory = ValidatorFactoryMaker.newInstance();
+	static Validator getValidator(String mediaType) {
+		Map<String, Validator> validators = VALIDATORS.get();
+		if (validators.containsKey(mediaType)) {
+			return validators.get(mediaType);
+		}
+		ValidatorFactoryMaker factory = SharedServices.getValidatorFactoryMaker();
+		Validator ret;
+		synchronized (factory) {
+			ret = factory.newValidator(mediaType);
+		}
+		// also remember that there is no validator, to avoid asking the factory again
+		validators.put(mediaType, ret);
+		return ret;
 	}
 
 	/**
@@ -46,12 +72,12 @@ class ValidatorFacade {
 		if (!in.exists()) {
 			throw new FileNotFoundException("File does not exist: " + in);
 		}
-		AnnotatedFile an = IdentityProvider.newInstance().identify(in);
+		AnnotatedFile an = SharedServices.getIdentificationCache().identify(in);
 		String mediaType = an.getMediaType();
 		if (mediaType == null) {
 			throw new IOException("Could not determine media type.");
 		}
-		Validator pv = factory.newValidator(mediaType);
+		Validator pv = getValidator(mediaType);
 		if (pv == null) {
 			throw new IOException("Could not find validator.");
 		}
@@ -1,8 +1,6 @@
 package org.daisy.dotify.cli.pefinfo;
 
-import org.daisy.braille.utils.pef.PEFBook;
-
-public class DublinCoreDetail implements Detail {
+public class DublinCoreDetail implements SummaryDetail {
 	enum Elements {
 		CONTRIBUTOR("contributor", "Contributor"),
 		COVERAGE("coverage", "Coverage"),
@@ -44,7 +42,7 @@ public class DublinCoreDetail implements Detail {
 	}
 
 	@Override
-	public Iterable<String> getDetails(PEFBook book) {
+	public Iterable<String> getDetails(PEFSummary book) {
 		return book.getMetadata(key);
 	}
 
@@ -33,6 +33,20 @@ public class PEFBookInfo {
 			printIterable(ps, i.getTitle(), i.getDetails(book));
 		}
 	}
+
+	/**
+	 * Prints the details of a book summary. Details that aren't
+	 * {@link SummaryDetail}s need the entire book and are skipped.
+	 * @param book the book summary
+	 * @param ps the print stream
+	 */
+	public void print(PEFSummary book, PrintStream ps) {
+		for (Detail i : infos) {
+			if (i instanceof SummaryDetail) {
+				printIterable(ps, i.getTitle(), ((SummaryDetail)i).getDetails(book));
+			}
+		}
+	}
 	
 	private void printIterable(PrintStream ps, String title, Iterable<String> items) {
 		if (items==null) {
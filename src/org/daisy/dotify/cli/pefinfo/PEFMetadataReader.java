@@ -0,0 +1,127 @@
+package org.daisy.dotify.cli.pefinfo;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Provides a streaming reader for PEF summaries. The file is read in a single forward
+ * pass, without building a document tree: the Dublin Core metadata is collected from
+ * the head and the volumes and pages are counted in the body. The text of the braille
+ * rows is never collected. Metadata values are returned as they appear in the file,
+ * without trimming, in the same way as by PEFBook.
+ */
+public class PEFMetadataReader {
+	private static final String PEF_NS = "http://www.daisy.org/ns/2008/pef";
+	private static final String DC_NS = "http://purl.org/dc/elements/1.1/";
+	private static final QName PEF = new QName(PEF_NS, "pef");
+	private static final QName META = new QName(PEF_NS, "meta");
+	private static final QName VOLUME = new QName(PEF_NS, "volume");
+	private static final QName SECTION = new QName(PEF_NS, "section");
+	private static final QName PAGE = new QName(PEF_NS, "page");
+	private static final String COLS = "cols";
+	private static final String ROWS = "rows";
+	private final XMLInputFactory factory;
+
+	/**
+	 * Creates a new reader.
+	 */
+	public PEFMetadataReader() {
+		this.factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+		// PEF-files don't use DTDs, and resolving them would require network access
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+	}
+
+	/**
+	 * Reads the metadata, volume count, page count and dimensions of a PEF-file.
+	 * @param f the file
+	 * @return a summary of the file
+	 * @throws IOException if the file cannot be read or isn't a PEF-file
+	 */
+	public PEFSummary read(File f) throws IOException {
+		try (InputStream is = new BufferedInputStream(new FileInputStream(f))) {
+			XMLStreamReader reader = factory.createXMLStreamReader(is);
+			try {
+				return read(f, reader);
+			} finally {
+				reader.close();
+			}
+		} catch (XMLStreamException e) {
+			throw new IOException("Failed to read " + f, e);
+		}
+	}
+
+	private static PEFSummary read(File f, XMLStreamReader reader) throws XMLStreamException, IOException {
+		PEFSummary.Builder builder = new PEFSummary.Builder(f.toURI());
+		int volumes = 0;
+		int pages = 0;
+		int maxWidth = 0;
+		int maxHeight = 0;
+		boolean root = true;
+		boolean inMeta = false;
+		while (reader.hasNext()) {
+			int event = reader.next();
+			if (event==XMLStreamConstants.START_ELEMENT) {
+				QName name = reader.getName();
+				if (root) {
+					if (!PEF.equals(name)) {
+						throw new IOException("Not a PEF-file: " + f);
+					}
+					root = false;
+				} else if (inMeta) {
+					if (DC_NS.equals(name.getNamespaceURI())) {
+						builder.metadata(name.getLocalPart(), reader.getElementText());
+					}
+				} else if (META.equals(name)) {
+					inMeta = true;
+				} else if (PAGE.equals(name)) {
+					pages++;
+				} else if (SECTION.equals(name)) {
+					maxWidth = Math.max(maxWidth, getInt(reader, COLS));
+					maxHeight = Math.max(maxHeight, getInt(reader, ROWS));
+				} else if (VOLUME.equals(name)) {
+					volumes++;
+					maxWidth = Math.max(maxWidth, getInt(reader, COLS));
+					maxHeight = Math.max(maxHeight, getInt(reader, ROWS));
+				}
+			} else if (event==XMLStreamConstants.END_ELEMENT) {
+				QName name = reader.getName();
+				if (META.equals(name)) {
+					inMeta = false;
+				}
+			}
+		}
+		if (root) {
+			throw new IOException("Not a PEF-file: " + f);
+		}
+		return builder
+				.volumes(volumes)
+				.pages(pages)
+				.maxWidth(maxWidth)
+				.maxHeight(maxHeight)
+				.build();
+	}
+
+	private static int getInt(XMLStreamReader reader, String attr) {
+		String value = reader.getAttributeValue(null, attr);
+		if (value==null) {
+			return 0;
+		}
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+}
@@ -0,0 +1,176 @@
+package org.daisy.dotify.cli.pefinfo;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.daisy.braille.utils.pef.PEFBook;
+
+/**
+ * Provides a summary of a PEF-file, that is to say its metadata and its dimensions.
+ * Unlike a PEFBook, a summary can be created from any source, for example from an index.
+ */
+public class PEFSummary {
+	private final URI uri;
+	private final Map<String, List<String>> metadata;
+	private final int volumes;
+	private final int pages;
+	private final int maxWidth;
+	private final int maxHeight;
+
+	/**
+	 * Provides a builder for PEF summaries.
+	 */
+	public static class Builder {
+		private final URI uri;
+		private final Map<String, List<String>> metadata = new LinkedHashMap<>();
+		private int volumes = 0;
+		private int pages = 0;
+		private int maxWidth = 0;
+		private int maxHeight = 0;
+
+		/**
+		 * Creates a new builder.
+		 * @param uri the URI of the PEF-file
+		 */
+		public Builder(URI uri) {
+			this.uri = uri;
+		}
+
+		/**
+		 * Adds a metadata value.
+		 * @param key the metadata key, for example "title"
+		 * @param value the value
+		 * @return this builder
+		 */
+		public Builder metadata(String key, String value) {
+			metadata.computeIfAbsent(key, k->new ArrayList<>()).add(value);
+			return this;
+		}
+
+		/**
+		 * Sets the number of volumes.
+		 * @param value the number of volumes
+		 * @return this builder
+		 */
+		public Builder volumes(int value) {
+			this.volumes = value;
+			return this;
+		}
+
+		/**
+		 * Sets the number of pages.
+		 * @param value the number of pages
+		 * @return this builder
+		 */
+		public Builder pages(int value) {
+			this.pages = value;
+			return this;
+		}
+
+		/**
+		 * Sets the maximum number of cells on a row.
+		 * @param value the maximum width
+		 * @return this builder
+		 */
+		public Builder maxWidth(int value) {
+			this.maxWidth = value;
+			return this;
+		}
+
+		/**
+		 * Sets the maximum number of rows on a page.
+		 * @param value the maximum height
+		 * @return this builder
+		 */
+		public Builder maxHeight(int value) {
+			this.maxHeight = value;
+			return this;
+		}
+
+		/**
+		 * Creates a new summary.
+		 * @return a new summary
+		 */
+		public PEFSummary build() {
+			return new PEFSummary(this);
+		}
+	}
+
+	private PEFSummary(Builder builder) {
+		this.uri = builder.uri;
+		Map<String, List<String>> m = new LinkedHashMap<>();
+		for (Map.Entry<String, List<String>> e : builder.metadata.entrySet()) {
+			m.put(e.getKey(), Collections.unmodifiableList(new ArrayList<>(e.getValue())));
+		}
+		this.metadata = Collections.unmodifiableMap(m);
+		this.volumes = builder.volumes;
+		this.pages = builder.pages;
+		this.maxWidth = builder.maxWidth;
+		this.maxHeight = builder.maxHeight;
+	}
+
+	/**
+	 * Creates a new summary of a PEF book.
+	 * @param book the book
+	 * @return a new summary
+	 */
+	public static PEFSummary from(PEFBook book) {
+		Builder builder = new Builder(book.getURI())
+				.volumes(book.getVolumes())
+				.pages(book.getPages())
+				.maxWidth(book.getMaxWidth())
+				.maxHeight(book.getMaxHeight());
+		for (String key : book.getMetadataKeys()) {
+			Iterable<String> values = book.getMetadata(key);
+			if (values!=null) {
+				for (String v : values) {
+					builder.metadata(key, v);
+				}
+			}
+		}
+		return builder.build();
+	}
+
+	public URI getURI() {
+		return uri;
+	}
+
+	/**
+	 * Gets the metadata keys, in document order.
+	 * @return the metadata keys
+	 */
+	public Set<String> getMetadataKeys() {
+		return metadata.keySet();
+	}
+
+	/**
+	 * Gets the values for a metadata key.
+	 * @param key the key
+	 * @return the values, or null if the key is not present
+	 */
+	public List<String> getMetadata(String key) {
+		return metadata.get(key);
+	}
+
+	public int getVolumes() {
+		return volumes;
+	}
+
+	public int getPages() {
+		return pages;
+	}
+
+	public int getMaxWidth() {
+		return maxWidth;
+	}
+
+	public int getMaxHeight() {
+		return maxHeight;
+	}
+
+}
@@ -0,0 +1,29 @@
+package org.daisy.dotify.cli.pefinfo;
+
+import org.daisy.braille.utils.pef.PEFBook;
+
+/**
+ * Provides a detail that can be read from a book summary, so that it can be
+ * displayed without loading the entire book. Details that only implement
+ * {@link Detail} are displayed for books, but not for summaries.
+ */
+public interface SummaryDetail extends Detail {
+
+	/**
+	 * Gets the details for a book, by way of its summary.
+	 * @param book the book
+	 * @return the details, or null if the book has none
+	 */
+	@Override
+	public default Iterable<String> getDetails(PEFBook book) {
+		return getDetails(PEFSummary.from(book));
+	}
+
+	/**
+	 * Gets the details for a book summary.
+	 * @param book the book summary
+	 * @return the details, or null if the book has none
+	 */
+	public Iterable<String> getDetails(PEFSummary book);
+
+}
@@ -2,9 +2,7 @@ package org.daisy.dotify.cli.pefinfo;
 
 import java.util.Arrays;
 
-import org.daisy.braille.utils.pef.PEFBook;
-
-public class URIDetail implements Detail {
+public class URIDetail implements SummaryDetail {
 
 	@Override
 	public String getTitle() {
@@ -12,7 +10,7 @@ public class URIDetail implements Detail {
 	}
 
 	@Override
-	public Iterable<String> getDetails(PEFBook book) {
+	public Iterable<String> getDetails(PEFSummary book) {
 		return Arrays.asList(book.getURI().toString());
 	}
 
@@ -0,0 +1,125 @@
+package org.daisy.dotify.cli;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class BatchRunnerTest {
+
+	@Test
+	public void testCounts() throws InterruptedException {
+		BatchRunner runner = new BatchRunner(3);
+		for (int i = 0; i<10; i++) {
+			int n = i;
+			runner.submit("job-" + i, ()->{
+				if (n%5==0) {
+					throw new Exception("Failure " + n);
+				}
+				return n%2==0;
+			});
+		}
+		runner.awaitCompletion();
+		assertEquals(4, runner.getSucceeded());
+		assertEquals(4, runner.getSkipped());
+		assertEquals(Arrays.asList("job-0", "job-5"), runner.getFailures().stream().sorted().collect(Collectors.toList()));
+	}
+
+	@Test
+	public void testBoundedConcurrency() throws InterruptedException {
+		BatchRunner runner = new BatchRunner(2);
+		AtomicInteger running = new AtomicInteger();
+		AtomicInteger max = new AtomicInteger();
+		for (int i = 0; i<20; i++) {
+			runner.submit("job-" + i, ()->{
+				int r = running.incrementAndGet();
+				max.accumulateAndGet(r, Math::max);
+				Thread.sleep(2);
+				running.decrementAndGet();
+				return true;
+			});
+		}
+		runner.awaitCompletion();
+		assertEquals(20, runner.getSucceeded());
+		assertTrue(max.get()<=2);
+	}
+
+	@Test(expected=RejectedExecutionException.class)
+	public void testSubmitAfterCancel() throws InterruptedException {
+		BatchRunner runner = new BatchRunner(1);
+		runner.cancel();
+		assertTrue(runner.isCancelled());
+		runner.submit("job", ()->true);
+	}
+
+	@Test
+	public void testCancelWakesUpSubmitter() throws InterruptedException {
+		BatchRunner runner = new BatchRunner(1);
+		CountDownLatch blocked = new CountDownLatch(1);
+		// occupies the worker and the remaining queue slot
+		runner.submit("running", ()->{
+			blocked.await();
+			return true;
+		});
+		runner.submit("queued", ()->true);
+		Thread canceller = new Thread(()->{
+			try {
+				Thread.sleep(20);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			runner.cancel();
+		});
+		canceller.start();
+		try {
+			runner.submit("waiting", ()->true);
+		} catch (RejectedExecutionException e) {
+			// expected
+		}
+		canceller.join();
+		runner.awaitCompletion();
+		assertTrue(runner.isCancelled());
+	}
+
+	@Test
+	public void testParseThreads() {
+		assertEquals(BatchRunner.defaultThreads(), BatchRunner.parseThreads(null));
+		assertEquals(BatchRunner.defaultThreads(), BatchRunner.parseThreads(""));
+		assertEquals(4, BatchRunner.parseThreads("4"));
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testParseThreadsZero() {
+		BatchRunner.parseThreads("0");
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testParseThreadsNotANumber() {
+		BatchRunner.parseThreads("many");
+	}
+
+	@Test
+	public void testPrintSummary() throws InterruptedException {
+		BatchRunner runner = new BatchRunner(1);
+		runner.submit("a", ()->true);
+		runner.submit("b", ()->false);
+		runner.submit("c", ()->{
+			throw new Exception();
+		});
+		runner.awaitCompletion();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		runner.printSummary(new PrintStream(out, true));
+		String s = out.toString();
+		assertTrue(s, s.startsWith("Processed 3 file(s): 1 succeeded, 1 skipped, 1 failed."));
+		assertTrue(s, s.contains("\tc"));
+	}
+}
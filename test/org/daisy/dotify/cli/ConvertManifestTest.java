@@ -0,0 +1,113 @@
+package org.daisy.dotify.cli;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+@SuppressWarnings("javadoc")
+public class ConvertManifestTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		File out = folder.newFolder("out");
+		File output = newFile(out, "a.pef");
+		Map<String, String> options = options("sv-SE");
+		ConvertManifest m = ConvertManifest.load(out, options);
+		assertFalse(m.isUpToDate("a.xml", "1234"));
+		m.put("a.xml", "1234", Collections.singletonList(output));
+		m.save();
+		assertTrue(new File(out, ConvertManifest.FILE_NAME).isFile());
+
+		m = ConvertManifest.load(out, options);
+		assertTrue(m.isUpToDate("a.xml", "1234"));
+		assertFalse(m.isUpToDate("a.xml", "5678"));
+		m.remove("a.xml");
+		assertFalse(m.isUpToDate("a.xml", "1234"));
+	}
+
+	@Test
+	public void testMissingOutput() throws IOException {
+		File out = folder.newFolder("out");
+		ConvertManifest m = ConvertManifest.load(out, options("sv-SE"));
+		m.put("a.xml", "1234", Collections.singletonList(new File(out, "a.pef")));
+		assertFalse(m.isUpToDate("a.xml", "1234"));
+	}
+
+	@Test
+	public void testMissingCompanion() throws IOException {
+		File out = folder.newFolder("out");
+		File sub = new File(out, "sub");
+		sub.mkdir();
+		File pef = newFile(sub, "a.pef");
+		File brl = newFile(sub, "a.pef.brl");
+		ConvertManifest m = ConvertManifest.load(out, options("sv-SE"));
+		m.put("sub/a.xml", "1234", Arrays.asList(pef, brl));
+		m.save();
+		m = ConvertManifest.load(out, options("sv-SE"));
+		assertTrue(m.isUpToDate("sub/a.xml", "1234"));
+		// every output must exist, not only the first one
+		assertTrue(brl.delete());
+		assertFalse(m.isUpToDate("sub/a.xml", "1234"));
+	}
+
+	@Test
+	public void testOptionsChanged() throws IOException {
+		File out = folder.newFolder("out");
+		File output = newFile(out, "a.pef");
+		ConvertManifest m = ConvertManifest.load(out, options("sv-SE"));
+		m.put("a.xml", "1234", Collections.singletonList(output));
+		m.save();
+		assertFalse(ConvertManifest.load(out, options("en-US")).isUpToDate("a.xml", "1234"));
+	}
+
+	@Test
+	public void testValidationDoesNotChangeOptions() throws IOException {
+		File out = folder.newFolder("out");
+		File output = newFile(out, "a.pef");
+		ConvertManifest m = ConvertManifest.load(out, options("sv-SE"));
+		m.put("a.xml", "1234", Collections.singletonList(output));
+		m.save();
+		Map<String, String> options = options("sv-SE");
+		options.put(Convert.VALIDATE_KEY, "sync");
+		assertTrue(ConvertManifest.load(out, options).isUpToDate("a.xml", "1234"));
+	}
+
+	@Test
+	public void testHash() throws IOException {
+		File a = folder.newFile("a.xml");
+		File b = folder.newFile("b.xml");
+		Files.write(a.toPath(), "<a/>".getBytes(StandardCharsets.UTF_8));
+		Files.write(b.toPath(), "<b/>".getBytes(StandardCharsets.UTF_8));
+		assertEquals(64, ConvertManifest.hash(a).length());
+		assertEquals(ConvertManifest.hash(a), ConvertManifest.hash(a));
+		assertNotEquals(ConvertManifest.hash(a), ConvertManifest.hash(b));
+	}
+
+	private static File newFile(File dir, String name) throws IOException {
+		File ret = new File(dir, name);
+		Files.write(ret.toPath(), new byte[0]);
+		return ret;
+	}
+
+	private static Map<String, String> options(String locale) {
+		Map<String, String> ret = new HashMap<>();
+		ret.put("locale", locale);
+		return ret;
+	}
+}
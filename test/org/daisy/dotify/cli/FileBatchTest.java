@@ -0,0 +1,35 @@
+package org.daisy.dotify.cli;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.nio.file.Paths;
+
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class FileBatchTest {
+
+	@Test
+	public void testOutputFile() {
+		File out = new File("out");
+		assertEquals(new File(out, "book.pef.brl"), FileBatch.outputFile(out.toPath(), Paths.get("book.pef"), "brl"));
+		assertEquals(new File(out, "a" + File.separator + "b.txt.pef"), FileBatch.outputFile(out.toPath(), Paths.get("a", "b.txt"), "pef"));
+		assertEquals(new File(out, "README.pef"), FileBatch.outputFile(out.toPath(), Paths.get("README"), "pef"));
+	}
+
+	@Test
+	public void testSameOutputRuleForAllBatches() {
+		// files that only differ in extension get different outputs
+		File out = new File("out");
+		assertEquals(new File(out, "book.xml.pef"), FileBatch.outputFile(out.toPath(), Paths.get("book.xml"), "pef"));
+		assertEquals(new File(out, "book.txt.pef"), FileBatch.outputFile(out.toPath(), Paths.get("book.txt"), "pef"));
+	}
+
+	@Test
+	public void testGlobOutput() {
+		File out = new File("out");
+		FileBatch batch = new FileBatch("in/*.pef", out, "brl", false, 1);
+		assertEquals(new File(out, "book.pef.brl"), batch.getOutputFile(Paths.get("in", "book.pef")));
+	}
+}
@@ -0,0 +1,74 @@
+package org.daisy.dotify.cli;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.daisy.streamline.api.identity.IdentityProvider;
+import org.daisy.streamline.api.media.AnnotatedFile;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+@SuppressWarnings("javadoc")
+public class IdentificationCacheTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testReuse() throws IOException {
+		IdentificationCache cache = new IdentificationCache(IdentityProvider.newInstance());
+		File f = write("a.xml", "<a/>");
+		AnnotatedFile af = cache.identify(f);
+		assertSame(af, cache.identify(f));
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getMisses());
+	}
+
+	@Test
+	public void testModified() throws IOException {
+		IdentificationCache cache = new IdentificationCache(IdentityProvider.newInstance());
+		File f = write("a.xml", "<a/>");
+		AnnotatedFile af = cache.identify(f);
+		write("a.xml", "<abc/>");
+		assertNotSame(af, cache.identify(f));
+		assertEquals(0, cache.getHits());
+		assertEquals(2, cache.getMisses());
+	}
+
+	@Test
+	public void testEviction() throws IOException {
+		IdentificationCache cache = new IdentificationCache(IdentityProvider.newInstance(), 1);
+		File a = write("a.xml", "<a/>");
+		File b = write("b.xml", "<b/>");
+		AnnotatedFile af = cache.identify(a);
+		cache.identify(b);
+		assertNotSame(af, cache.identify(a));
+		assertEquals(3, cache.getMisses());
+	}
+
+	@Test
+	public void testClear() throws IOException {
+		IdentificationCache cache = new IdentificationCache(IdentityProvider.newInstance());
+		File f = write("a.xml", "<a/>");
+		AnnotatedFile af = cache.identify(f);
+		cache.clear();
+		assertNotSame(af, cache.identify(f));
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testInvalidSize() {
+		new IdentificationCache(IdentityProvider.newInstance(), 0);
+	}
+
+	private File write(String name, String content) throws IOException {
+		File f = new File(folder.getRoot(), name);
+		Files.write(f.toPath(), content.getBytes(StandardCharsets.UTF_8));
+		return f;
+	}
+}
@@ -0,0 +1,95 @@
+package org.daisy.dotify.cli;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+@SuppressWarnings("javadoc")
+public class InputFilesTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	private Path root;
+
+	@Before
+	public void setup() throws IOException {
+		root = folder.getRoot().toPath();
+		Files.createDirectories(root.resolve("a/b"));
+		for (String s : new String[]{"1.pef", "2.txt", "a/3.pef", "a/b/4.pef"}) {
+			Files.createFile(root.resolve(s));
+		}
+	}
+
+	@Test
+	public void testIsGlob() {
+		assertTrue(InputFiles.isGlob("*.pef"));
+		assertTrue(InputFiles.isGlob("file?.pef"));
+		assertTrue(InputFiles.isGlob("[ab].pef"));
+		assertTrue(InputFiles.isGlob("{a,b}.pef"));
+		assertFalse(InputFiles.isGlob("dir/file.pef"));
+	}
+
+	@Test
+	public void testFile() throws IOException {
+		assertEquals(Arrays.asList("1.pef"), list(root.resolve("1.pef").toString(), false));
+	}
+
+	@Test
+	public void testFolder() throws IOException {
+		assertEquals(Arrays.asList("1.pef", "2.txt"), list(root.toString(), false));
+		assertEquals(Arrays.asList("1.pef", "2.txt", "a/3.pef", "a/b/4.pef"), list(root.toString(), true));
+	}
+
+	@Test
+	public void testGlob() throws IOException {
+		assertEquals(Arrays.asList("1.pef"), list(glob("*.pef"), false));
+		assertEquals(Arrays.asList("a/3.pef"), list(glob("*/*.pef"), false));
+		assertEquals(Arrays.asList("1.pef", "a/3.pef", "a/b/4.pef"), list(glob("**.pef"), false));
+		assertEquals(Arrays.asList("a/b/4.pef"), list(glob("a/b/*"), false));
+	}
+
+	@Test(expected=IOException.class)
+	public void testMissingFile() throws IOException {
+		InputFiles.list(root.resolve("missing.pef").toString(), false);
+	}
+
+	@Test(expected=IOException.class)
+	public void testMissingGlobBase() throws IOException {
+		InputFiles.list(root.resolve("missing").toString() + "/*.pef", false);
+	}
+
+	@Test
+	public void testBase() {
+		assertEquals(root, InputFiles.base(root.toString()));
+		assertEquals(root, InputFiles.base(root.resolve("1.pef").toString()));
+		assertEquals(root.resolve("a"), InputFiles.base(glob("a/*.pef")));
+		assertEquals(Paths.get(""), InputFiles.base("*.pef"));
+	}
+
+	private String glob(String pattern) {
+		return root.toString().replace(File.separatorChar, '/') + "/" + pattern;
+	}
+
+	private List<String> list(String input, boolean recursive) throws IOException {
+		try (Stream<Path> files = InputFiles.list(input, recursive)) {
+			return files
+					.map(v->root.relativize(v).toString().replace(File.separatorChar, '/'))
+					.sorted()
+					.collect(Collectors.toList());
+		}
+	}
+}
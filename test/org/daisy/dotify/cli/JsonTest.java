@@ -0,0 +1,109 @@
+package org.daisy.dotify.cli;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class JsonTest {
+
+	@Test
+	public void testQuote() {
+		assertEquals("\"abc\"", Json.quote("abc"));
+		assertEquals("\"a\\\"b\\\\c\"", Json.quote("a\"b\\c"));
+		assertEquals("\"a\\nb\\tc\\r\"", Json.quote("a\nb\tc\r"));
+		assertEquals("\"\\u0001\"", Json.quote("\u0001"));
+		assertEquals("\"\u2801\"", Json.quote("\u2801"));
+	}
+
+	@Test
+	public void testQuoteNull() {
+		assertEquals("null", Json.quote(null));
+	}
+
+	@Test
+	public void testParseValues() {
+		assertEquals("abc", Json.parse("\"abc\""));
+		assertEquals(12L, Json.parse("12"));
+		assertEquals(-1.5, Json.parse("-1.5"));
+		assertEquals(1e3, Json.parse("1e3"));
+		assertEquals(Boolean.TRUE, Json.parse("true"));
+		assertEquals(Boolean.FALSE, Json.parse(" false "));
+		assertNull(Json.parse("null"));
+	}
+
+	@Test
+	public void testParseEscapes() {
+		assertEquals("a\"b\\c/\b\f\n\r\t\u2801", Json.parse("\"a\\\"b\\\\c\\/\\b\\f\\n\\r\\t\\u2801\""));
+	}
+
+	@Test
+	public void testParseObject() {
+		Map<String, Object> expected = new LinkedHashMap<>();
+		expected.put("id", 1L);
+		expected.put("text", "Hej");
+		expected.put("list", Arrays.asList(1L, "a", null, Collections.emptyMap()));
+		expected.put("empty", Collections.emptyList());
+		Object o = Json.parse("{\"id\":1, \"text\" : \"Hej\", \"list\":[1,\"a\",null,{}], \"empty\":[]}");
+		assertEquals(expected, o);
+		// members are kept in order
+		assertEquals(Arrays.asList("id", "text", "list", "empty"), Arrays.asList(((Map<?, ?>)o).keySet().toArray()));
+	}
+
+	@Test
+	public void testRoundTrip() {
+		String json = "{\"id\":\"a\\nb\",\"n\":[1,2.5,true,null]}";
+		assertEquals(json, Json.toJson(Json.parse(json)));
+	}
+
+	@Test
+	public void testMaxDepth() {
+		assertEquals(1, ((List<?>)Json.parse(nested(Json.MAX_DEPTH))).size());
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testTooDeep() {
+		Json.parse(nested(Json.MAX_DEPTH + 1));
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testVeryDeep() {
+		// would overflow the stack without a depth limit
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i<1000000; i++) {
+			sb.append('[');
+		}
+		Json.parse(sb.toString());
+	}
+
+	@Test
+	public void testInvalid() {
+		for (String s : new String[]{"", "{", "[1,]", "{\"a\"}", "{a:1}", "\"abc", "\"\\x\"", "\"\\u12\"", "tru", "1 2", "-", "[1}"}) {
+			try {
+				Json.parse(s);
+				throw new AssertionError("Expected an exception: " + s);
+			} catch (IllegalArgumentException e) {
+				assertTrue(e.getMessage().contains("position"));
+			}
+		}
+	}
+
+	private static String nested(int depth) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i<depth; i++) {
+			sb.append('[');
+		}
+		for (int i = 0; i<depth; i++) {
+			sb.append(']');
+		}
+		return sb.toString();
+	}
+}
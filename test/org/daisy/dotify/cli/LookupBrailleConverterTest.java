@@ -0,0 +1,76 @@
+package org.daisy.dotify.cli;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.reflect.Proxy;
+
+import org.daisy.dotify.api.table.BrailleConverter;
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class LookupBrailleConverterTest {
+	private static final String EN_US = "org.daisy.braille.impl.table.DefaultTableProvider.TableType.EN_US";
+
+	@Test
+	public void testTable() {
+		BrailleConverter bc = SharedServices.getTableCatalog().newTable(EN_US).newBrailleConverter();
+		LookupBrailleConverter lbc = LookupBrailleConverter.compile(bc);
+		String braille = bc.toBraille("ABC");
+		assertEquals("⠁⠃⠉", braille);
+		assertEquals(bc.toText(braille), lbc.toText(braille));
+		// all six dot patterns give the same result as the table
+		for (char c = '⠀'; c<='⠿'; c++) {
+			String s = String.valueOf(c);
+			assertEquals(bc.toText(s), lbc.toText(s));
+		}
+	}
+
+	@Test
+	public void testLookup() {
+		LookupBrailleConverter lbc = LookupBrailleConverter.compile(converter());
+		assertEquals("⠀⠁⣿", lbc.toText("⠀⠁⣿"));
+	}
+
+	@Test
+	public void testIdentity() {
+		BrailleConverter identity = (BrailleConverter)Proxy.newProxyInstance(LookupBrailleConverterTest.class.getClassLoader(),
+				new Class<?>[]{BrailleConverter.class}, (proxy, method, args)->args[0]);
+		LookupBrailleConverter lbc = LookupBrailleConverter.compile(identity);
+		assertEquals("⠀⠁⣿", lbc.toText("⠀⠁⣿"));
+		assertEquals("⠁x", lbc.toText("⠁x"));
+	}
+
+	@Test
+	public void testFallback() {
+		LookupBrailleConverter lbc = LookupBrailleConverter.compile(converter());
+		// the pattern maps to two characters, and characters outside of the braille block are passed to the table
+		assertEquals("⠁<2>x", lbc.toText("⠁⠂x"));
+		StringBuilder sb = new StringBuilder("a");
+		lbc.toText("⠂⠃", sb);
+		assertEquals("a<2>⠃", sb.toString());
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testUnsupported() {
+		LookupBrailleConverter.compile(converter()).toText("⠄");
+	}
+
+	/**
+	 * Creates a converter that maps patterns to themselves, except that
+	 * U+2802 gives two characters and U+2804 is not supported.
+	 */
+	private static BrailleConverter converter() {
+		return (BrailleConverter)Proxy.newProxyInstance(LookupBrailleConverterTest.class.getClassLoader(), new Class<?>[]{BrailleConverter.class}, (proxy, method, args)->{
+			if ("toText".equals(method.getName())) {
+				String s = (String)args[0];
+				if ("⠂".equals(s)) {
+					return "<2>";
+				} else if ("⠄".equals(s)) {
+					throw new IllegalArgumentException("Not supported: " + s);
+				}
+				return s;
+			}
+			throw new UnsupportedOperationException(method.getName());
+		});
+	}
+}
@@ -0,0 +1,144 @@
+package org.daisy.dotify.cli;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Collections;
+import java.util.List;
+
+import org.daisy.dotify.cli.pefinfo.PEFSummary;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+@SuppressWarnings("javadoc")
+public class PEFIndexTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		File idx = new File(folder.getRoot(), "sub/index.idx");
+		File a = folder.newFile("a.pef");
+		File b = folder.newFile("b.pef");
+		PEFIndex index = PEFIndex.load(idx);
+		index.put(a, a.length(), a.lastModified(), summary(a, "Braille for beginners", "Jane Doe"));
+		index.putFailed(b, b.length(), b.lastModified());
+		index.save();
+		assertTrue(idx.isFile());
+
+		index = PEFIndex.load(idx);
+		assertEquals(2, index.size());
+		assertTrue(index.isUpToDate(a));
+		// failed files are not read again until they change
+		assertTrue(index.isUpToDate(b));
+		List<PEFSummary> res = index.search("beginners");
+		assertEquals(1, res.size());
+		assertEquals(a.toURI(), res.get(0).getURI());
+		assertEquals(Collections.singletonList("Jane Doe"), res.get(0).getMetadata("creator"));
+		assertEquals(3, res.get(0).getVolumes());
+		assertEquals(120, res.get(0).getPages());
+	}
+
+	@Test
+	public void testModified() throws IOException {
+		File a = folder.newFile("a.pef");
+		PEFIndex index = PEFIndex.load(new File(folder.getRoot(), "index.idx"));
+		index.put(a, a.length() + 1, a.lastModified(), summary(a, "Title", "Author"));
+		assertFalse(index.isUpToDate(a));
+	}
+
+	@Test
+	public void testRemoveAndRetain() throws IOException {
+		File a = folder.newFile("a.pef");
+		File b = folder.newFile("b.pef");
+		PEFIndex index = PEFIndex.load(new File(folder.getRoot(), "index.idx"));
+		index.put(a, a.length(), a.lastModified(), summary(a, "First", "Author"));
+		index.put(b, b.length(), b.lastModified(), summary(b, "Second", "Author"));
+		assertEquals(2, index.search("author").size());
+		index.remove(a);
+		assertEquals(1, index.search("author").size());
+		index.retainAll(Collections.singleton(a.getAbsolutePath()));
+		assertEquals(0, index.size());
+	}
+
+	@Test
+	public void testKeysDifferingInCase() throws IOException {
+		File a = folder.newFile("a.pef");
+		PEFSummary s = new PEFSummary.Builder(a.toURI())
+				.metadata("title", "Lower")
+				.metadata("Title", "Upper")
+				.build();
+		PEFIndex index = PEFIndex.load(new File(folder.getRoot(), "index.idx"));
+		index.put(a, a.length(), a.lastModified(), s);
+		assertEquals(1, index.search("title:lower").size());
+		assertEquals(1, index.search("title:upper").size());
+	}
+
+	@Test
+	public void testCorruptLength() throws IOException {
+		File idx = new File(folder.getRoot(), "index.idx");
+		try (DataOutputStream out = new DataOutputStream(new FileOutputStream(idx))) {
+			out.writeInt(0x50454658);
+			out.writeInt(4);
+			out.writeInt(1);
+			// a path length far beyond the size of the file
+			out.writeInt(Integer.MAX_VALUE);
+		}
+		assertEquals(0, PEFIndex.load(idx).size());
+	}
+
+	@Test
+	public void testTruncated() throws IOException {
+		File idx = new File(folder.getRoot(), "index.idx");
+		File a = folder.newFile("a.pef");
+		PEFIndex index = PEFIndex.load(idx);
+		index.put(a, a.length(), a.lastModified(), summary(a, "Title", "Author"));
+		index.save();
+		try (RandomAccessFile raf = new RandomAccessFile(idx, "rw")) {
+			raf.setLength(raf.length() / 2);
+		}
+		assertEquals(0, PEFIndex.load(idx).size());
+	}
+
+	@Test
+	public void testNotAnIndex() throws IOException {
+		File idx = folder.newFile("index.idx");
+		try (FileOutputStream out = new FileOutputStream(idx)) {
+			out.write("not an index".getBytes("UTF-8"));
+		}
+		assertEquals(0, PEFIndex.load(idx).size());
+	}
+
+	@Test
+	public void testSplit() {
+		assertArrayEquals(new String[]{"braille", "för", "nybörjare", "del", "2"}, PEFIndex.split("Braille för NYBÖRJARE, del 2"));
+	}
+
+	@Test
+	public void testDefaultFile() {
+		File f = PEFIndex.defaultFile(new File("library"));
+		assertEquals(f, PEFIndex.defaultFile(new File("library").getAbsoluteFile()));
+		assertFalse(f.equals(PEFIndex.defaultFile(new File("other"))));
+		assertTrue(f.getName().endsWith(".idx"));
+		assertEquals(new File(System.getProperty("user.home")), f.getParentFile().getParentFile().getParentFile());
+	}
+
+	private static PEFSummary summary(File f, String title, String author) {
+		return new PEFSummary.Builder(f.toURI())
+				.metadata("title", title)
+				.metadata("creator", author)
+				.volumes(3)
+				.pages(120)
+				.maxWidth(32)
+				.maxHeight(29)
+				.build();
+	}
+}
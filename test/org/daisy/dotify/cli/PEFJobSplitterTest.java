@@ -0,0 +1,122 @@
+package org.daisy.dotify.cli;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+@SuppressWarnings("javadoc")
+public class PEFJobSplitterTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	private final List<StringBuilder> jobs = new ArrayList<>();
+
+	@Test
+	public void testSheets() throws IOException, ParserConfigurationException, SAXException {
+		File in = pef(
+				"<volume cols=\"10\" rows=\"4\" rowgap=\"0\" duplex=\"true\">"
+				+ "<section>" + page("1") + page("2") + page("3") + "</section>"
+				+ "<section>" + page("4") + page("5") + "</section>"
+				+ "</volume>"
+				+ "<volume cols=\"10\" rows=\"4\" rowgap=\"0\" duplex=\"false\">"
+				+ "<section>" + page("6") + page("7") + page("8") + "</section>"
+				+ "</volume>");
+		assertEquals(4, PEFJobSplitter.split(in, 2, this::newJob));
+		assertEquals(Arrays.asList(
+				"<pef><head></head><body><volume duplex=true><section>1 2 </section></volume></body></pef>",
+				// page 5 is on the back of page 4, so the job ends after page 5
+				"<pef><head></head><body><volume duplex=true><section>3 </section><section>4 5 </section></volume></body></pef>",
+				"<pef><head></head><body><volume duplex=false><section>6 7 </section></volume></body></pef>",
+				"<pef><head></head><body><volume duplex=false><section>8 </section></volume></body></pef>"
+				), toStrings());
+	}
+
+	@Test
+	public void testOddPagesInDuplex() throws IOException, ParserConfigurationException, SAXException {
+		File in = pef(
+				"<volume cols=\"10\" rows=\"4\" rowgap=\"0\" duplex=\"true\">"
+				+ "<section>" + page("1") + page("2") + page("3") + "</section>"
+				+ "<section duplex=\"false\">" + page("4") + page("5") + "</section>"
+				+ "</volume>");
+		assertEquals(4, PEFJobSplitter.split(in, 1, this::newJob));
+		assertEquals(Arrays.asList(
+				"<pef><head></head><body><volume duplex=true><section>1 2 </section></volume></body></pef>",
+				"<pef><head></head><body><volume duplex=true><section>3 </section></volume></body></pef>",
+				"<pef><head></head><body><volume duplex=true><section>4 </section></volume></body></pef>",
+				"<pef><head></head><body><volume duplex=true><section>5 </section></volume></body></pef>"
+				), toStrings());
+	}
+
+	@Test
+	public void testOneJob() throws IOException, ParserConfigurationException, SAXException, URISyntaxException {
+		assertEquals(1, PEFJobSplitter.split(PEFVolumeSplitterTest.resource("two-volumes.pef"), 100, this::newJob));
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testIllegalPagesPerJob() {
+		new PEFJobSplitter(0, this::newJob);
+	}
+
+	private DefaultHandler newJob() {
+		StringBuilder sb = new StringBuilder();
+		jobs.add(sb);
+		return new DefaultHandler() {
+			@Override
+			public void startElement(String uri, String localName, String qName, Attributes atts) {
+				if ("volume".equals(localName)) {
+					sb.append("<volume duplex=").append(atts.getValue("duplex")).append('>');
+				} else if (!"page".equals(localName) && !"row".equals(localName)) {
+					sb.append('<').append(localName).append('>');
+				}
+			}
+
+			@Override
+			public void endElement(String uri, String localName, String qName) {
+				if ("row".equals(localName)) {
+					sb.append(' ');
+				} else if (!"page".equals(localName)) {
+					sb.append("</").append(localName).append('>');
+				}
+			}
+
+			@Override
+			public void characters(char[] ch, int start, int length) {
+				sb.append(new String(ch, start, length).trim());
+			}
+		};
+	}
+
+	private List<String> toStrings() {
+		List<String> ret = new ArrayList<>();
+		for (StringBuilder sb : jobs) {
+			ret.add(sb.toString());
+		}
+		return ret;
+	}
+
+	private File pef(String volumes) throws IOException {
+		File ret = folder.newFile("input.pef");
+		Files.write(ret.toPath(), ("<pef version=\"2008-1\" xmlns=\"http://www.daisy.org/ns/2008/pef\"><head></head><body>"
+				+ volumes + "</body></pef>").getBytes(StandardCharsets.UTF_8));
+		return ret;
+	}
+
+	private static String page(String text) {
+		return "<page><row>" + text + "</row></page>";
+	}
+}
@@ -0,0 +1,117 @@
+package org.daisy.dotify.cli;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.daisy.dotify.cli.pefinfo.PEFSummary;
+import org.junit.Before;
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class PEFQueryIndexTest {
+	private PEFQueryIndex index;
+
+	@Before
+	public void setup() {
+		index = new PEFQueryIndex();
+		add("a", "Braille for beginners", "Anna Andersson");
+		add("b", "A history of writing", "Braille Institute");
+		add("c", "Brailled music", "Carl Carlsson");
+		add("d", "Tactile graphics", "Anna Berg");
+	}
+
+	@Test
+	public void testTitleRanksHigher() {
+		// a prefix match in the title ranks higher than a whole word match in another field
+		assertEquals(Arrays.asList("a", "c", "b"), ids(index.search("braille")));
+	}
+
+	@Test
+	public void testPrefix() {
+		assertEquals(Arrays.asList("c"), ids(index.search("brailled")));
+		assertEquals(Arrays.asList("a", "c", "b"), ids(index.search("brail")));
+		assertEquals(Arrays.asList("a", "c", "b"), ids(index.search("brail*")));
+		assertEquals(Arrays.asList("a", "d"), ids(index.search("ann")));
+	}
+
+	@Test
+	public void testExactRanksHigherThanPrefix() {
+		// both are title matches, but only the first matches the whole word
+		assertEquals(Arrays.asList("a", "c"), ids(index.search("title:braille")));
+	}
+
+	@Test
+	public void testField() {
+		assertEquals(Arrays.asList("b"), ids(index.search("creator:braille")));
+		assertEquals(Arrays.asList("d"), ids(index.search("CREATOR:berg")));
+	}
+
+	@Test
+	public void testAllClausesMustMatch() {
+		assertEquals(Arrays.asList("a"), ids(index.search("anna braille")));
+		assertEquals(Collections.emptyList(), ids(index.search("anna music")));
+	}
+
+	@Test
+	public void testFuzzy() {
+		assertEquals(Arrays.asList("d"), ids(index.search("tactle~")));
+		assertEquals(Arrays.asList("a", "b"), ids(index.search("brialle~")));
+		assertEquals(Collections.emptyList(), ids(index.search("tactle")));
+	}
+
+	@Test
+	public void testRemove() {
+		PEFQueryIndex idx = new PEFQueryIndex();
+		int doc = idx.add(summary("a", "Title", "Author"), tokens("Title", "Author"));
+		idx.add(summary("b", "Title", "Other"), tokens("Title", "Other"));
+		idx.remove(doc);
+		assertEquals(1, idx.size());
+		assertEquals(1, idx.getDeleted());
+		assertEquals(Arrays.asList("b"), ids(idx.search("title")));
+	}
+
+	@Test
+	public void testEmptyQuery() {
+		assertTrue(index.search("  ").isEmpty());
+	}
+
+	@Test
+	public void testDistance() {
+		assertEquals(0, PEFQueryIndex.distance("braille", "braille", 2));
+		assertEquals(1, PEFQueryIndex.distance("braile", "braille", 2));
+		assertEquals(2, PEFQueryIndex.distance("brialle", "braille", 2));
+		assertTrue(PEFQueryIndex.distance("music", "braille", 2)>2);
+	}
+
+	private void add(String id, String title, String creator) {
+		index.add(summary(id, title, creator), tokens(title, creator));
+	}
+
+	private static PEFSummary summary(String id, String title, String creator) {
+		return new PEFSummary.Builder(URI.create("file:/" + id + ".pef"))
+				.metadata("title", title)
+				.metadata("creator", creator)
+				.build();
+	}
+
+	private static Map<String, String[]> tokens(String title, String creator) {
+		Map<String, String[]> ret = new LinkedHashMap<>();
+		ret.put("title", PEFIndex.split(title));
+		ret.put("creator", PEFIndex.split(creator));
+		return ret;
+	}
+
+	private static List<String> ids(List<PEFSummary> res) {
+		return res.stream()
+				.map(v->v.getURI().getPath().replaceAll("^/|\\.pef$", ""))
+				.collect(Collectors.toList());
+	}
+}
@@ -0,0 +1,88 @@
+package org.daisy.dotify.cli;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.daisy.dotify.cli.PEFVolumeMerger.SortType;
+import org.daisy.dotify.cli.pefinfo.PEFMetadataReader;
+import org.daisy.dotify.cli.pefinfo.PEFSummary;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+@SuppressWarnings("javadoc")
+public class PEFVolumeMergerTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testRoundTrip() throws IOException, InterruptedException, URISyntaxException {
+		File in = PEFVolumeSplitterTest.resource("two-volumes.pef");
+		File volumes = folder.newFolder("volumes");
+		new PEFVolumeSplitter(2).split(in, volumes);
+		// not PEF-files, and must not be merged
+		Files.write(new File(volumes, "notes.txt").toPath(), "notes".getBytes(StandardCharsets.UTF_8));
+		new File(volumes, "sub.pef").mkdir();
+		// the output is in the input folder
+		File out = new File(volumes, "merged.pef");
+		PEFVolumeMerger merger = new PEFVolumeMerger(2);
+		assertTrue(merger.merge(volumes, out, "merged-id", SortType.NUMERAL_GROUPING));
+		assertTrue(merger.getInvalid().isEmpty());
+		assertTrue(ValidatorFacade.getValidator(ValidatorFacade.PEF_MEDIA_TYPE).validate(out.toURI().toURL()).isValid());
+
+		PEFMetadataReader reader = new PEFMetadataReader();
+		PEFSummary expected = reader.read(in);
+		PEFSummary actual = reader.read(out);
+		assertEquals(expected.getVolumes(), actual.getVolumes());
+		assertEquals(expected.getPages(), actual.getPages());
+		assertEquals(expected.getMaxWidth(), actual.getMaxWidth());
+		assertEquals(expected.getMaxHeight(), actual.getMaxHeight());
+		assertEquals(expected.getMetadata("title"), actual.getMetadata("title"));
+		assertEquals(Collections.singletonList("merged-id"), actual.getMetadata("identifier"));
+
+		// merging again does not include the previous output
+		assertTrue(merger.merge(volumes, out, "merged-id", SortType.NUMERAL_GROUPING));
+		assertEquals(expected.getPages(), reader.read(out).getPages());
+	}
+
+	@Test(expected=IOException.class)
+	public void testNoPEFFiles() throws IOException, InterruptedException {
+		File dir = folder.newFolder("in");
+		Files.write(new File(dir, "a.txt").toPath(), "a".getBytes(StandardCharsets.UTF_8));
+		new PEFVolumeMerger(1).merge(dir, new File(folder.getRoot(), "out.pef"), "id", SortType.STANDARD);
+	}
+
+	@Test
+	public void testCompareNumeralGrouping() {
+		assertTrue(PEFVolumeMerger.compareNumeralGrouping("volume-2.pef", "volume-10.pef")<0);
+		assertTrue(PEFVolumeMerger.compareNumeralGrouping("volume-10.pef", "volume-2.pef")>0);
+		assertTrue(PEFVolumeMerger.compareNumeralGrouping("a1b2", "a1b10")<0);
+		assertTrue(PEFVolumeMerger.compareNumeralGrouping("a", "a1")<0);
+		assertTrue(PEFVolumeMerger.compareNumeralGrouping("a1", "a")>0);
+		assertTrue(PEFVolumeMerger.compareNumeralGrouping("b1", "a2")>0);
+		assertEquals(0, PEFVolumeMerger.compareNumeralGrouping("volume-1.pef", "volume-1.pef"));
+		// leading zeros do not change the order, but the result is still consistent
+		assertTrue(PEFVolumeMerger.compareNumeralGrouping("volume-02.pef", "volume-10.pef")<0);
+		assertTrue(PEFVolumeMerger.compareNumeralGrouping("volume-02.pef", "volume-2.pef")<0);
+		// larger than a long
+		assertTrue(PEFVolumeMerger.compareNumeralGrouping("99999999999999999999", "100000000000000000000")<0);
+	}
+
+	@Test
+	public void testSortType() {
+		List<File> files = Arrays.asList(new File("v10.pef"), new File("v2.pef"), new File("v1.pef"));
+		files.sort(SortType.STANDARD.comparator());
+		assertEquals(Arrays.asList(new File("v1.pef"), new File("v10.pef"), new File("v2.pef")), files);
+		files.sort(SortType.NUMERAL_GROUPING.comparator());
+		assertEquals(Arrays.asList(new File("v1.pef"), new File("v2.pef"), new File("v10.pef")), files);
+	}
+}
@@ -0,0 +1,86 @@
+package org.daisy.dotify.cli;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.daisy.dotify.cli.pefinfo.PEFMetadataReader;
+import org.daisy.dotify.cli.pefinfo.PEFSummary;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+@SuppressWarnings("javadoc")
+public class PEFVolumeSplitterTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testSplit() throws IOException, InterruptedException, URISyntaxException {
+		File out = folder.newFolder("out");
+		PEFVolumeSplitter splitter = new PEFVolumeSplitter(2);
+		List<File> volumes = splitter.split(resource("two-volumes.pef"), out);
+		assertEquals(Arrays.asList(new File(out, "volume-1.pef"), new File(out, "volume-2.pef")), volumes);
+		assertTrue(splitter.getInvalid().isEmpty());
+		PEFMetadataReader reader = new PEFMetadataReader();
+		PEFSummary v1 = reader.read(volumes.get(0));
+		assertEquals(1, v1.getVolumes());
+		assertEquals(2, v1.getPages());
+		assertEquals(Arrays.asList("Two volumes"), v1.getMetadata("title"));
+		PEFSummary v2 = reader.read(volumes.get(1));
+		assertEquals(1, v2.getVolumes());
+		assertEquals(2, v2.getPages());
+		assertEquals(Arrays.asList("Two volumes"), v2.getMetadata("title"));
+	}
+
+	@Test
+	public void testInvalidInput() throws IOException, InterruptedException {
+		File in = folder.newFile("invalid.pef");
+		// a volume without the required attributes
+		Files.write(in.toPath(), ("<pef version=\"2008-1\" xmlns=\"http://www.daisy.org/ns/2008/pef\"><head/>"
+				+ "<body><volume><section><page><row/></page></section></volume></body></pef>").getBytes(StandardCharsets.UTF_8));
+		File out = folder.newFolder("out");
+		try {
+			new PEFVolumeSplitter(1).split(in, out);
+			throw new AssertionError("Expected an exception");
+		} catch (IOException e) {
+			// expected
+		}
+		assertEquals(0, out.list().length);
+	}
+
+	@Test
+	public void testMalformedInput() throws IOException, InterruptedException {
+		File in = folder.newFile("malformed.pef");
+		// the document ends in the middle of the second volume
+		Files.write(in.toPath(), ("<pef version=\"2008-1\" xmlns=\"http://www.daisy.org/ns/2008/pef\"><head/><body>"
+				+ "<volume cols=\"10\" rows=\"10\" rowgap=\"0\" duplex=\"false\"><section><page><row/></page></section></volume>"
+				+ "<volume cols=\"10\" rows=\"10\" rowgap=\"0\" duplex=\"false\"><section><page>").getBytes(StandardCharsets.UTF_8));
+		File out = folder.newFolder("out");
+		try {
+			new PEFVolumeSplitter(1).split(in, out);
+			throw new AssertionError("Expected an exception");
+		} catch (IOException e) {
+			// expected
+		}
+		assertEquals(0, out.list().length);
+	}
+
+	@Test(expected=IOException.class)
+	public void testNoVolumes() throws IOException, InterruptedException {
+		File in = folder.newFile("empty.pef");
+		Files.write(in.toPath(), "<pef xmlns=\"http://www.daisy.org/ns/2008/pef\"><head/><body/></pef>".getBytes(StandardCharsets.UTF_8));
+		new PEFVolumeSplitter(1).split(in, folder.newFolder("out"));
+	}
+
+	static File resource(String name) throws URISyntaxException {
+		return new File(PEFVolumeSplitterTest.class.getResource("resource-files/" + name).toURI());
+	}
+}
@@ -0,0 +1,112 @@
+package org.daisy.dotify.cli;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import javax.print.PrintException;
+
+import org.daisy.dotify.api.embosser.Device;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+@SuppressWarnings("javadoc")
+public class QueuedDeviceTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	private final List<String> received = Collections.synchronizedList(new ArrayList<>());
+	private final List<File> temps = Collections.synchronizedList(new ArrayList<>());
+
+	@Test
+	public void testCopies() throws IOException, PrintException {
+		QueuedDevice queued = new QueuedDevice(recorder(null, null), 2, 2);
+		queued.transmit(file("a"));
+		queued.transmit(file("b"));
+		queued.transmit(file("c"));
+		queued.close();
+		assertEquals(Arrays.asList("a", "b", "c", "a", "b", "c"), received);
+		assertDeleted();
+	}
+
+	@Test
+	public void testAbort() throws IOException, PrintException, InterruptedException {
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		QueuedDevice queued = new QueuedDevice(recorder(started, release), 2, 3);
+		queued.transmit(file("a"));
+		started.await();
+		// a is being transmitted, b and c are waiting
+		queued.transmit(file("b"));
+		queued.transmit(file("c"));
+		queued.abort();
+		release.countDown();
+		queued.close();
+		assertEquals(Arrays.asList("a"), received);
+		assertDeleted();
+	}
+
+	@Test(timeout=10000)
+	public void testRuntimeException() throws IOException, PrintException {
+		IllegalStateException failure = new IllegalStateException();
+		QueuedDevice queued = new QueuedDevice(f->{
+			temps.add(f);
+			throw failure;
+		}, 1, 2);
+		try {
+			// the failed device must not block the producer
+			for (int i = 0; i<10; i++) {
+				queued.transmit(file("a"));
+			}
+			throw new AssertionError("Expected an exception");
+		} catch (PrintException e) {
+			assertSame(failure, e.getCause());
+		}
+		try {
+			queued.close();
+			throw new AssertionError("Expected an exception");
+		} catch (PrintException e) {
+			assertSame(failure, e.getCause());
+		}
+		assertDeleted();
+	}
+
+	private Device recorder(CountDownLatch started, CountDownLatch release) {
+		return f->{
+			try {
+				temps.add(f);
+				received.add(new String(Files.readAllBytes(f.toPath()), StandardCharsets.UTF_8));
+				if (started!=null) {
+					started.countDown();
+				}
+				if (release!=null) {
+					release.await();
+				}
+			} catch (IOException | InterruptedException e) {
+				throw new PrintException(e);
+			}
+		};
+	}
+
+	private File file(String contents) throws IOException {
+		File f = folder.newFile();
+		Files.write(f.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+		return f;
+	}
+
+	private void assertDeleted() {
+		for (File f : temps) {
+			assertTrue(!f.exists());
+		}
+	}
+}
@@ -0,0 +1,74 @@
+package org.daisy.dotify.cli;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+@SuppressWarnings("javadoc")
+public class ServeCLITest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testToArgsTabs() {
+		assertArrayEquals(new String[]{"convert", "/a b/in.xml", "/out.pef"}, ServeCLI.toArgs("convert\t/a b/in.xml\t/out.pef"));
+	}
+
+	@Test
+	public void testToArgsSpaces() {
+		assertArrayEquals(new String[]{"validate", "/in.pef"}, ServeCLI.toArgs("  validate   /in.pef "));
+	}
+
+	@Test
+	public void testCreateToken() throws IOException {
+		Path f = folder.getRoot().toPath().resolve("sub").resolve("serve-token");
+		byte[] token = ServeCLI.readToken(f);
+		assertTrue(Files.isRegularFile(f));
+		assertEquals(64, token.length);
+		assertArrayEquals(token, ServeCLI.readToken(f));
+		if (isPosix(f)) {
+			assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(f)));
+		}
+	}
+
+	@Test
+	public void testReadExistingToken() throws IOException {
+		Path f = folder.getRoot().toPath().resolve("serve-token");
+		Files.write(f, "secret\n".getBytes(StandardCharsets.UTF_8));
+		if (isPosix(f)) {
+			Files.setPosixFilePermissions(f, PosixFilePermissions.fromString("rw-------"));
+		}
+		assertArrayEquals("secret".getBytes(StandardCharsets.UTF_8), ServeCLI.readToken(f));
+	}
+
+	@Test(expected=IOException.class)
+	public void testRejectReadableByOthers() throws IOException {
+		Path f = folder.getRoot().toPath().resolve("serve-token");
+		Assume.assumeTrue(isPosix(f));
+		Files.write(f, "secret\n".getBytes(StandardCharsets.UTF_8));
+		Files.setPosixFilePermissions(f, PosixFilePermissions.fromString("rw-r--r--"));
+		ServeCLI.readToken(f);
+	}
+
+	private static boolean isPosix(Path f) {
+		return f.getFileSystem().supportedFileAttributeViews().contains("posix");
+	}
+
+	@Test
+	public void testMessage() {
+		assertEquals("failed", ServeCLI.message(new IOException("failed")));
+		assertEquals("java.lang.NullPointerException", ServeCLI.message(new NullPointerException()));
+		assertEquals("java.io.IOException:  ", ServeCLI.message(new IOException(" ")));
+	}
+}
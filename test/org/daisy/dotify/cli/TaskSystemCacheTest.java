@@ -0,0 +1,74 @@
+package org.daisy.dotify.cli;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.daisy.streamline.api.tasks.TaskSystem;
+import org.daisy.streamline.api.tasks.TaskSystemFactoryException;
+import org.daisy.streamline.api.tasks.TaskSystemFactoryMaker;
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class TaskSystemCacheTest {
+
+	@Test
+	public void testReuse() throws TaskSystemFactoryException {
+		TaskSystemCache cache = new TaskSystemCache(TaskSystemFactoryMaker.newInstance());
+		TaskSystem ts = cache.borrow("xml", "pef", "sv-SE");
+		assertNotNull(ts);
+		cache.release("xml", "pef", "sv-SE", ts);
+		assertSame(ts, cache.borrow("xml", "pef", "sv-SE"));
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getMisses());
+	}
+
+	@Test
+	public void testNotShared() throws TaskSystemFactoryException {
+		TaskSystemCache cache = new TaskSystemCache(TaskSystemFactoryMaker.newInstance(), 4, 2);
+		TaskSystem ts1 = cache.borrow("xml", "pef", "sv-SE");
+		// borrowed task systems are never handed out twice
+		TaskSystem ts2 = cache.borrow("xml", "pef", "sv-SE");
+		assertNotSame(ts1, ts2);
+		cache.release("xml", "pef", "sv-SE", ts1);
+		cache.release("xml", "pef", "sv-SE", ts2);
+		assertSame(ts2, cache.borrow("xml", "pef", "sv-SE"));
+		assertSame(ts1, cache.borrow("xml", "pef", "sv-SE"));
+		assertEquals(2, cache.getHits());
+		assertEquals(2, cache.getMisses());
+	}
+
+	@Test
+	public void testMaxIdle() throws TaskSystemFactoryException {
+		TaskSystemCache cache = new TaskSystemCache(TaskSystemFactoryMaker.newInstance(), 4, 1);
+		TaskSystem ts1 = cache.borrow("xml", "pef", "sv-SE");
+		TaskSystem ts2 = cache.borrow("xml", "pef", "sv-SE");
+		cache.release("xml", "pef", "sv-SE", ts1);
+		// the pool is full, so this one is dropped
+		cache.release("xml", "pef", "sv-SE", ts2);
+		assertSame(ts1, cache.borrow("xml", "pef", "sv-SE"));
+		assertNotSame(ts2, cache.borrow("xml", "pef", "sv-SE"));
+	}
+
+	@Test
+	public void testEviction() throws TaskSystemFactoryException {
+		TaskSystemCache cache = new TaskSystemCache(TaskSystemFactoryMaker.newInstance(), 1, 1);
+		TaskSystem ts = cache.borrow("xml", "pef", "sv-SE");
+		cache.release("xml", "pef", "sv-SE", ts);
+		cache.release("xml", "formatted-text", "en-US", cache.borrow("xml", "formatted-text", "en-US"));
+		assertNotSame(ts, cache.borrow("xml", "pef", "sv-SE"));
+		assertEquals(0, cache.getHits());
+		assertEquals(3, cache.getMisses());
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testInvalidSize() {
+		new TaskSystemCache(TaskSystemFactoryMaker.newInstance(), 0, 1);
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testInvalidPoolSize() {
+		new TaskSystemCache(TaskSystemFactoryMaker.newInstance(), 1, 0);
+	}
+}
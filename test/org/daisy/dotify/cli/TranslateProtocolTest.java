@@ -0,0 +1,47 @@
+package org.daisy.dotify.cli;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class TranslateProtocolTest {
+
+	@Test
+	public void testNotAnObject() {
+		Map<?, ?> response = handle("[1]");
+		assertNull(response.get(TranslateProtocol.ID));
+		assertEquals("The request must be an object", response.get(TranslateProtocol.ERROR));
+	}
+
+	@Test
+	public void testMalformedRequest() {
+		Map<?, ?> response = handle("{\"id\":1,");
+		assertTrue(response.containsKey(TranslateProtocol.ERROR));
+		assertFalse(response.containsKey(TranslateProtocol.BRAILLE));
+	}
+
+	@Test
+	public void testMissingText() {
+		Map<?, ?> response = handle("{\"id\":\"a\"}");
+		assertEquals("a", response.get(TranslateProtocol.ID));
+		assertEquals("The request must have a text", response.get(TranslateProtocol.ERROR));
+	}
+
+	@Test
+	public void testRuntimeException() {
+		// without a short form resolver, looking up the table fails with a runtime exception
+		Map<?, ?> response = handle("{\"id\":7,\"text\":\"Hej\",\"table\":\"x\"}");
+		assertEquals(7L, response.get(TranslateProtocol.ID));
+		assertTrue(response.containsKey(TranslateProtocol.ERROR));
+	}
+
+	private static Map<?, ?> handle(String request) {
+		return (Map<?, ?>)Json.parse(new TranslateProtocol("sv-SE", "uncontracted", null, null, null).handle(request));
+	}
+}
@@ -0,0 +1,121 @@
+package org.daisy.dotify.cli;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import org.daisy.dotify.api.translator.BrailleTranslator;
+import org.daisy.dotify.api.translator.BrailleTranslatorResult;
+import org.daisy.dotify.api.translator.Translatable;
+import org.daisy.dotify.api.translator.TranslationException;
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class TranslationCacheTest {
+	// each entry is 4 characters of text, 4 of translation and 4 of locale, mode and separators
+	private static final int ENTRY = 12;
+	private final List<String> translated = new ArrayList<>();
+
+	@Test
+	public void testHit() throws TranslationException {
+		TranslationCache cache = new TranslationCache(10 * ENTRY);
+		BrailleTranslator t = translator();
+		assertEquals("AAAA", cache.translate("l", "m", "aaaa", t));
+		assertEquals("AAAA", cache.translate("l", "m", "aaaa", t));
+		assertEquals(1, translated.size());
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getMisses());
+		assertEquals(0.5, cache.getHitRate(), 0);
+	}
+
+	@Test
+	public void testKeyedByLocaleAndMode() throws TranslationException {
+		TranslationCache cache = new TranslationCache(10 * ENTRY);
+		BrailleTranslator t = translator();
+		cache.translate("l", "m", "aaaa", t);
+		cache.translate("k", "m", "aaaa", t);
+		cache.translate("l", "n", "aaaa", t);
+		assertEquals(3, translated.size());
+		assertEquals(0, cache.getHits());
+	}
+
+	@Test
+	public void testEvictLeastRecentlyUsed() throws TranslationException {
+		TranslationCache cache = new TranslationCache(2 * ENTRY);
+		BrailleTranslator t = translator();
+		cache.translate("l", "m", "aaaa", t);
+		cache.translate("l", "m", "bbbb", t);
+		// makes bbbb the least recently used entry
+		cache.translate("l", "m", "aaaa", t);
+		// evicts bbbb
+		cache.translate("l", "m", "cccc", t);
+		translated.clear();
+		cache.translate("l", "m", "aaaa", t);
+		cache.translate("l", "m", "cccc", t);
+		assertEquals(0, translated.size());
+		cache.translate("l", "m", "bbbb", t);
+		assertEquals(1, translated.size());
+	}
+
+	@Test
+	public void testEvictUntilWithinLimit() throws TranslationException {
+		TranslationCache cache = new TranslationCache(3 * ENTRY);
+		BrailleTranslator t = translator();
+		cache.translate("l", "m", "aaaa", t);
+		cache.translate("l", "m", "bbbb", t);
+		cache.translate("l", "m", "cccc", t);
+		// twice the size of a regular entry, evicts both aaaa and bbbb
+		cache.translate("l", "m", "dddddddddd", t);
+		translated.clear();
+		cache.translate("l", "m", "cccc", t);
+		cache.translate("l", "m", "dddddddddd", t);
+		assertEquals(0, translated.size());
+		cache.translate("l", "m", "aaaa", t);
+		cache.translate("l", "m", "bbbb", t);
+		assertEquals(2, translated.size());
+	}
+
+	@Test
+	public void testTooLarge() throws TranslationException {
+		TranslationCache cache = new TranslationCache(ENTRY);
+		BrailleTranslator t = translator();
+		cache.translate("l", "m", "aaaa", t);
+		// larger than the cache, translated but not cached and doesn't evict aaaa
+		assertEquals("BBBBB", cache.translate("l", "m", "bbbbb", t));
+		cache.translate("l", "m", "bbbbb", t);
+		cache.translate("l", "m", "aaaa", t);
+		assertEquals(3, translated.size());
+		assertEquals(1, cache.getHits());
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testIllegalSize() {
+		new TranslationCache(0);
+	}
+
+	/**
+	 * Creates a translator that upper cases the text and records each translation.
+	 */
+	private BrailleTranslator translator() {
+		return (BrailleTranslator)Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{BrailleTranslator.class}, (proxy, method, args)->{
+			if ("translate".equals(method.getName()) && args!=null && args.length==1 && args[0] instanceof Translatable) {
+				String text = ((Translatable)args[0]).getText();
+				translated.add(text);
+				return result(text.toUpperCase(Locale.ROOT));
+			}
+			throw new UnsupportedOperationException(method.getName());
+		});
+	}
+
+	private static BrailleTranslatorResult result(String braille) {
+		return (BrailleTranslatorResult)Proxy.newProxyInstance(TranslationCacheTest.class.getClassLoader(), new Class<?>[]{BrailleTranslatorResult.class}, (proxy, method, args)->{
+			if ("getTranslatedRemainder".equals(method.getName())) {
+				return braille;
+			}
+			throw new UnsupportedOperationException(method.getName());
+		});
+	}
+}
@@ -0,0 +1,41 @@
+package org.daisy.dotify.cli.pefinfo;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.util.Arrays;
+
+import org.daisy.braille.utils.pef.PEFBook;
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class PEFBookInfoTest {
+
+	@Test
+	public void testPrintSummary() throws UnsupportedEncodingException {
+		PEFSummary s = new PEFSummary.Builder(URI.create("file:/a.pef"))
+				.metadata("title", "Title")
+				.pages(12)
+				.build();
+		// a detail that only supports books is skipped for summaries
+		Detail bookOnly = new Detail() {
+			@Override
+			public String getTitle() {
+				return "Book only";
+			}
+
+			@Override
+			public Iterable<String> getDetails(PEFBook book) {
+				return Arrays.asList("x");
+			}
+		};
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new PEFBookInfo(new DublinCoreDetail(DublinCoreDetail.Elements.TITLE), bookOnly, new PagesDetail())
+				.print(s, new PrintStream(out, true, "UTF-8"));
+		String nl = System.lineSeparator();
+		assertEquals("Title" + nl + "\tTitle" + nl + "Pages" + nl + "\t12" + nl, out.toString("UTF-8"));
+	}
+}
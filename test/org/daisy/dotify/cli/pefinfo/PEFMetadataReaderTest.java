@@ -0,0 +1,50 @@
+package org.daisy.dotify.cli.pefinfo;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+@SuppressWarnings("javadoc")
+public class PEFMetadataReaderTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testRead() throws IOException, URISyntaxException {
+		File f = new File(PEFMetadataReaderTest.class.getResource("/org/daisy/dotify/cli/resource-files/two-volumes.pef").toURI());
+		PEFSummary s = new PEFMetadataReader().read(f);
+		assertEquals(f.toURI(), s.getURI());
+		assertEquals(Arrays.asList("title", "creator", "format", "identifier", "description"), Arrays.asList(s.getMetadataKeys().toArray()));
+		assertEquals(Collections.singletonList("Two volumes"), s.getMetadata("title"));
+		// values are not trimmed
+		assertEquals(Collections.singletonList(" A test book "), s.getMetadata("description"));
+		assertEquals(2, s.getVolumes());
+		assertEquals(4, s.getPages());
+		assertEquals(14, s.getMaxWidth());
+		assertEquals(5, s.getMaxHeight());
+	}
+
+	@Test(expected=IOException.class)
+	public void testNotPEF() throws IOException {
+		File f = folder.newFile("a.pef");
+		Files.write(f.toPath(), "<html/>".getBytes(StandardCharsets.UTF_8));
+		new PEFMetadataReader().read(f);
+	}
+
+	@Test(expected=IOException.class)
+	public void testNotXML() throws IOException {
+		File f = folder.newFile("a.pef");
+		Files.write(f.toPath(), "not xml".getBytes(StandardCharsets.UTF_8));
+		new PEFMetadataReader().read(f);
+	}
+}